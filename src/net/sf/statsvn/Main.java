@@ -22,6 +22,7 @@
  */
 package net.sf.statsvn;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -40,7 +41,11 @@ import net.sf.statcvs.output.ConfigurationOptions;
 import net.sf.statcvs.output.ReportConfig;
 import net.sf.statcvs.pages.ReportSuiteMaker;
 import net.sf.statsvn.input.Builder;
+import net.sf.statsvn.input.DumpFileParser;
+import net.sf.statsvn.input.DumpRepositoryFileManager;
+import net.sf.statsvn.input.MultiBranchLogfileParser;
 import net.sf.statsvn.input.RepositoryFileManager;
+import net.sf.statsvn.input.SvnLogDiffParser;
 import net.sf.statsvn.input.SvnLogfileParser;
 import net.sf.statsvn.output.SvnCommandLineParser;
 import net.sf.statsvn.output.SvnConfigurationOptions;
@@ -105,6 +110,11 @@ public final class Main {
     public static void generate() {
         try {
             RepositoryFileManager manager = createRepoManager();
+            if (manager instanceof DumpRepositoryFileManager) {
+                // everything is read from the dump.
+                generateDefaultHTMLSuite(manager);
+                return;
+            }
             String version = manager.getProcessor().getVersionProcessor().checkSvnVersionSufficient();
             final boolean isNewerDiffPossible = manager.getProcessor().getVersionProcessor().checkDiffPerRevPossible(version);
             // fall-back to older option.
@@ -173,7 +183,24 @@ public final class Main {
                         + cr + "  -concurrency-threshold <millisec> switch to concurrent svn diff if 1st call>threshold (default: 4000)" + cr
                         + "  -dump                 dump the Repository content on console" + cr
                         + "  -charset <charset> specify the charset to use for html/xdoc\n"
-                        + "  -tags-dir <directory> optional, specifies the director for tags (default '/tags/')" + cr + cr
+                        + "  -tags-dir <directory> optional, specifies the director for tags (default '/tags/')" + cr
+                        + "  -branches <dir;dir>   working copies of other branches to report on from the same log" + cr
+                        + "  -zero-context-diff    ask svn (1.9+) for diffs without context lines" + cr
+                        + "  -log-diff             the logfile is the output of svn log -v --diff (1.7+)" + cr
+                        + "  -svndump <path>       the logfile is a dump, report on <path>; no <directory>" + cr
+                        + "  -copies-as-moves      count unmodified copies as moves (0/0) without svn diff" + cr
+                        + "  -classify-binary      mark likely binary revisions of deleted files without svn diff" + cr
+                        + "  -binary-sample <int>  check the binary guess of <int> files with svn diff" + cr
+                        + "  -pipelined-diff       start svn diff while the log is being parsed" + cr
+                        + "  -svn-timeout <int>    kill svn calls that take more than <int> seconds" + cr
+                        + "  -virtual-threads      one (Java 21) virtual thread per svn diff; -threads caps svn calls" + cr
+                        + "  -adaptive-concurrency adapt concurrent svn diffs to the server, -min-threads to -threads" + cr
+                        + "  -min-threads <int>    the lowest number of concurrent svn diffs (default: 1)" + cr
+                        + "  -hedged-diff          issue an svn diff again when it runs past twice the usual p99" + cr
+                        + "  -split-revisions <n>  diff revisions of more than n paths by subtree, concurrently" + cr
+                        + "  -svn-rate <n>         at most n svn diff calls per second" + cr
+                        + "  -svn-bandwidth <n>    at most n bytes of svn diff output per second" + cr
+                        + "  -svn-rate-schedule <s> rates by hour, e.g. 9-18=2/500000,18-9=0/0 (calls/bytes, 0: no limit)" + cr + cr
                         + "Full options list: http://www.statsvn.org");
         System.exit(1);
     }
@@ -236,6 +263,9 @@ public final class Main {
     }
 
     private static RepositoryFileManager createRepoManager() {
+        if (SvnConfigurationOptions.getSvnDumpPath() != null) {
+            return new DumpRepositoryFileManager(SvnConfigurationOptions.getSvnDumpPath());
+        }
         return new RepositoryFileManager(ConfigurationOptions.getCheckedOutDirectory());
     }
 
@@ -259,7 +289,7 @@ public final class Main {
         if (ConfigurationOptions.getLogFileName() == null) {
             throw new ConfigurationException("Missing logfile name");
         }
-        if (ConfigurationOptions.getCheckedOutDirectory() == null) {
+        if (ConfigurationOptions.getCheckedOutDirectory() == null && !(repFileMan instanceof DumpRepositoryFileManager)) {
             throw new ConfigurationException("Missing checked out directory");
         }
 
@@ -275,19 +305,96 @@ public final class Main {
                         + (ConfigurationOptions.getExcludePattern() != null ? " exclude pattern '" + ConfigurationOptions.getExcludePattern() + "'"
                                 : "No exclude pattern"));
 
+        if (repFileMan instanceof DumpRepositoryFileManager && SvnConfigurationOptions.getSplitRevisionPaths() > 0) {
+            // the line counts of a dump come by revision, not by subtree.
+            throw new ConfigurationException("-svndump cannot be used with -split-revisions");
+        }
+        if (!SvnConfigurationOptions.getBranchDirectories().isEmpty()) {
+            if (SvnConfigurationOptions.isLogWithDiff()) {
+                throw new ConfigurationException("-log-diff cannot be used with -branches");
+            }
+            if (repFileMan instanceof DumpRepositoryFileManager) {
+                throw new ConfigurationException("-svndump cannot be used with -branches");
+            }
+            generateBranchHTMLSuites(repFileMan, memoryUsedOnStart);
+        } else {
+            FileInputStream logFile = null;
+            Builder builder = null;
+            try {
+                logFile = new FileInputStream(ConfigurationOptions.getLogFileName());
+                builder = createBuilder(repFileMan);
+                if (repFileMan instanceof DumpRepositoryFileManager) {
+                    new DumpFileParser((DumpRepositoryFileManager) repFileMan, logFile, builder).parse();
+                } else if (SvnConfigurationOptions.isLogWithDiff()) {
+                    new SvnLogDiffParser(repFileMan, logFile, builder).parse();
+                } else {
+                    new SvnLogfileParser(repFileMan, logFile, builder).parse();
+                }
+            } finally {
+                if (logFile != null) {
+                    logFile.close();
+                }
+            }
+            generateReport(builder, memoryUsedOnStart);
+        }
+
+        final long endTime = System.currentTimeMillis();
+        final long memoryUsedOnEnd = Runtime.getRuntime().totalMemory();
+
+        SvnConfigurationOptions.getTaskLogger().info("runtime: " + (((double) endTime - startTime) / NUMBER_OF_MS_IN_ONE_SEC) + " seconds");
+        SvnConfigurationOptions.getTaskLogger().info("memory usage: " + (((double) memoryUsedOnEnd - memoryUsedOnStart) / KB_IN_ONE_MB) + " kb");
+    }
+
+    private static Builder createBuilder(final RepositoryFileManager repFileMan) {
+        return new Builder(repFileMan, ConfigurationOptions.getIncludePattern(), ConfigurationOptions.getExcludePattern(), ConfigurationOptions
+                .getSymbolicNamesPattern());
+    }
+
+    /**
+     * Generates one report per branch from a single pass over the log. The
+     * report of the checked out directory goes to the output directory, the
+     * report of each other branch to a sub-directory named after the branch.
+     */
+    private static void generateBranchHTMLSuites(final RepositoryFileManager repFileMan, final long memoryUsedOnStart) throws LogSyntaxException,
+            IOException, ConfigurationException {
+        final List branchDirectories = SvnConfigurationOptions.getBranchDirectories();
+        final RepositoryFileManager[] managers = new RepositoryFileManager[branchDirectories.size() + 1];
+        final Builder[] builders = new Builder[managers.length];
+        managers[0] = repFileMan;
+        for (int i = 1; i < managers.length; i++) {
+            final String directory = (String) branchDirectories.get(i - 1);
+            managers[i] = new RepositoryFileManager(directory, SvnConfigurationOptions.createProcessor(new File(directory)));
+        }
+        for (int i = 0; i < managers.length; i++) {
+            builders[i] = createBuilder(managers[i]);
+        }
+
         FileInputStream logFile = null;
-        Builder builder = null;
         try {
             logFile = new FileInputStream(ConfigurationOptions.getLogFileName());
-            builder = new Builder(repFileMan, ConfigurationOptions.getIncludePattern(), ConfigurationOptions.getExcludePattern(), ConfigurationOptions
-                    .getSymbolicNamesPattern());
-            new SvnLogfileParser(repFileMan, logFile, builder).parse();
+            new MultiBranchLogfileParser(logFile, managers, builders).parse();
         } finally {
             if (logFile != null) {
                 logFile.close();
             }
         }
 
+        final String outputDir = ConfigurationOptions.getOutputDir();
+        final String projectName = ConfigurationOptions.getProjectName();
+        for (int i = 0; i < builders.length; i++) {
+            if (i > 0) {
+                final String branchName = builders[i].getProjectName().replace('/', '_').replace('\\', '_');
+                ConfigurationOptions.setOutputDir(outputDir + (branchName.startsWith("_") ? branchName.substring(1) : branchName));
+                ConfigurationOptions.setProjectName(projectName != null ? projectName + " " + builders[i].getProjectName() : null);
+            }
+            generateReport(builders[i], memoryUsedOnStart);
+            builders[i] = null;
+        }
+        ConfigurationOptions.setOutputDir(outputDir);
+        ConfigurationOptions.setProjectName(projectName);
+    }
+
+    private static void generateReport(Builder builder, final long memoryUsedOnStart) throws IOException {
         if (ConfigurationOptions.getProjectName() == null) {
             ConfigurationOptions.setProjectName(builder.getProjectName());
         }
@@ -300,7 +407,7 @@ public final class Main {
         SvnConfigurationOptions.getTaskLogger().info("Using " + ConfigurationOptions.getCssHandler());
         final Repository content = builder.createRepository();
 
-        long memoryUsedOnEnd = Runtime.getRuntime().totalMemory();
+        final long memoryUsedOnEnd = Runtime.getRuntime().totalMemory();
         SvnConfigurationOptions.getTaskLogger().info("memory usage After Build: " + (((double) memoryUsedOnEnd - memoryUsedOnStart) / KB_IN_ONE_MB) + " kb");
 
         builder.clean();
@@ -329,11 +436,6 @@ public final class Main {
                 new ReportSuiteMaker(config, ConfigurationOptions.getNotes(), extraReports).toFile().write();
             }
         }
-        final long endTime = System.currentTimeMillis();
-        memoryUsedOnEnd = Runtime.getRuntime().totalMemory();
-
-        SvnConfigurationOptions.getTaskLogger().info("runtime: " + (((double) endTime - startTime) / NUMBER_OF_MS_IN_ONE_SEC) + " seconds");
-        SvnConfigurationOptions.getTaskLogger().info("memory usage: " + (((double) memoryUsedOnEnd - memoryUsedOnStart) / KB_IN_ONE_MB) + " kb");
     }
 
     private static void validate(final ReportConfig config) {
@@ -53,6 +53,40 @@ public class StatSvnTask extends StatCvsTask {
 	
 	private boolean useSvnKit = false;
 
+	private boolean useZeroContextDiff = false;
+
+	private boolean logWithDiff = false;
+
+	private String svnDumpPath;
+
+	private boolean copiesAsMoves = false;
+
+	private boolean classifyBinary = false;
+
+	private int binarySample;
+
+	private boolean pipelinedDiff = false;
+
+	private long svnTimeout;
+
+	private boolean virtualThreads = false;
+
+	private boolean adaptiveConcurrency = false;
+
+	private int minThreads;
+
+	private boolean hedgedDiff = false;
+
+	private int splitRevisions;
+
+	private double svnRate;
+
+	private double svnBandwidth;
+
+	private String svnRateSchedule = null;
+
+	private String branches;
+
 	/**
 	 * Constructor for StatSvnTask.
 	 */
@@ -112,7 +146,56 @@ public class StatSvnTask extends StatCvsTask {
 		}
         if (this.useSvnKit) { // only override if we don't want it. 
             SvnConfigurationOptions.setUsingSvnKit(true);
-        }		
+        }
+		if (this.useZeroContextDiff) {
+			SvnConfigurationOptions.setZeroContextDiff(true);
+		}
+		if (this.logWithDiff) {
+			SvnConfigurationOptions.setLogWithDiff(true);
+		}
+		if (this.svnDumpPath != null) {
+			SvnConfigurationOptions.setSvnDumpPath(this.svnDumpPath);
+		}
+		if (this.copiesAsMoves) {
+			SvnConfigurationOptions.setCopiesAsMoves(true);
+		}
+		if (this.classifyBinary || this.binarySample != 0) {
+			SvnConfigurationOptions.setClassifyBinary(true);
+			SvnConfigurationOptions.setBinaryVerificationSample(this.binarySample);
+		}
+		if (this.pipelinedDiff) {
+			SvnConfigurationOptions.setPipelinedDiff(true);
+		}
+		if (this.svnTimeout != 0) {
+			SvnConfigurationOptions.setSvnTimeout(this.svnTimeout * 1000);
+		}
+		if (this.virtualThreads) {
+			SvnConfigurationOptions.setVirtualThreads(true);
+		}
+		if (this.adaptiveConcurrency) {
+			SvnConfigurationOptions.setAdaptiveConcurrency(true);
+		}
+		if (this.minThreads != 0) {
+			SvnConfigurationOptions.setMinNumberSvnDiffThreads(this.minThreads);
+		}
+		if (this.hedgedDiff) {
+			SvnConfigurationOptions.setHedgedDiff(true);
+		}
+		if (this.splitRevisions != 0) {
+			SvnConfigurationOptions.setSplitRevisionPaths(this.splitRevisions);
+		}
+		if (this.svnRate != 0) {
+			SvnConfigurationOptions.setSvnRequestRate(this.svnRate);
+		}
+		if (this.svnBandwidth != 0) {
+			SvnConfigurationOptions.setSvnByteRate(this.svnBandwidth);
+		}
+		if (this.svnRateSchedule != null) {
+			SvnConfigurationOptions.setSvnRateSchedule(this.svnRateSchedule);
+		}
+		if (this.branches != null) {
+			SvnConfigurationOptions.setBranchDirectories(this.branches);
+		}
 		SvnConfigurationOptions.setTaskLogger(new AntTaskLogger(this));
 	}
 
@@ -180,5 +263,149 @@ public class StatSvnTask extends StatCvsTask {
      */
     public void setSvnKit(final boolean isSvnKit) {
         this.useSvnKit = isSvnKit;
-    }	
+    }
+
+	/**
+	 * @param branches
+	 *            working copies of other branches to report on, separated by ;
+	 */
+	public void setBranches(final String branches) {
+		this.branches = branches;
+	}
+
+	/**
+	 * @param isZeroContext
+	 *            true if svn diff should be asked for diffs without context
+	 *            lines.
+	 */
+	public void setZeroContextDiff(final boolean isZeroContext) {
+		this.useZeroContextDiff = isZeroContext;
+	}
+
+	/**
+	 * @param isLogWithDiff
+	 *            true if the logfile is the output of svn log -v --diff.
+	 */
+	public void setLogDiff(final boolean isLogWithDiff) {
+		this.logWithDiff = isLogWithDiff;
+	}
+
+	/**
+	 * @param path
+	 *            the folder of the repository to report on, if the logfile is
+	 *            the output of svnadmin dump.
+	 */
+	public void setSvnDumpPath(final String path) {
+		this.svnDumpPath = path;
+	}
+
+	/**
+	 * @param isCopiesAsMoves
+	 *            true if copies that were not modified should be recorded as
+	 *            moves instead of being diffed.
+	 */
+	public void setCopiesAsMoves(final boolean isCopiesAsMoves) {
+		this.copiesAsMoves = isCopiesAsMoves;
+	}
+
+	/**
+	 * @param isClassifyBinary
+	 *            true if likely binary revisions should be marked without svn
+	 *            diff.
+	 */
+	public void setClassifyBinary(final boolean isClassifyBinary) {
+		this.classifyBinary = isClassifyBinary;
+	}
+
+	/**
+	 * @param sample
+	 *            the number of files guessed binary to check with svn diff.
+	 */
+	public void setBinarySample(final int sample) {
+		this.binarySample = sample;
+	}
+
+	/**
+	 * @param isPipelined
+	 *            true if svn diffs should start while the log is parsed.
+	 */
+	public void setPipelinedDiff(final boolean isPipelined) {
+		this.pipelinedDiff = isPipelined;
+	}
+
+	/**
+	 * @param seconds
+	 *            the time after which an svn call is killed.
+	 */
+	public void setSvnTimeout(final long seconds) {
+		this.svnTimeout = seconds;
+	}
+
+	/**
+	 * @param isVirtual
+	 *            true if each svn diff should run on its own virtual thread.
+	 */
+	public void setVirtualThreads(final boolean isVirtual) {
+		this.virtualThreads = isVirtual;
+	}
+
+	/**
+	 * @param isAdaptive
+	 *            true if the number of concurrent svn diff calls should adapt
+	 *            to the server.
+	 */
+	public void setAdaptiveConcurrency(final boolean isAdaptive) {
+		this.adaptiveConcurrency = isAdaptive;
+	}
+
+	/**
+	 * @param threads
+	 *            the lowest number of concurrent svn diff calls of the adaptive
+	 *            concurrency.
+	 */
+	public void setMinThreads(final int threads) {
+		this.minThreads = threads;
+	}
+
+	/**
+	 * @param isHedged
+	 *            true if a slow svn diff call should be issued a second time.
+	 */
+	public void setHedgedDiff(final boolean isHedged) {
+		this.hedgedDiff = isHedged;
+	}
+
+	/**
+	 * @param maxPaths
+	 *            the number of changed paths above which the svn diff of a
+	 *            revision is split by subtree.
+	 */
+	public void setSplitRevisions(final int maxPaths) {
+		this.splitRevisions = maxPaths;
+	}
+
+	/**
+	 * @param requestsPerSecond
+	 *            the most svn diff calls per second.
+	 */
+	public void setSvnRate(final double requestsPerSecond) {
+		this.svnRate = requestsPerSecond;
+	}
+
+	/**
+	 * @param bytesPerSecond
+	 *            the most bytes of svn diff output per second.
+	 */
+	public void setSvnBandwidth(final double bytesPerSecond) {
+		this.svnBandwidth = bytesPerSecond;
+	}
+
+	/**
+	 * @param schedule
+	 *            the rates of some hours of the day, such as
+	 *            <code>9-18=2/500000,18-9=0/0</code>.
+	 */
+	public void setSvnRateSchedule(final String schedule) {
+		this.svnRateSchedule = schedule;
+	}
 }
@@ -0,0 +1,150 @@
+package net.sf.statsvn.input;
+
+import net.sf.statsvn.output.SvnConfigurationOptions;
+
+/**
+ * <p>
+ * Limits the number of svn diff calls in flight, and adapts the limit to how
+ * the server copes, by additive increase and multiplicative decrease (AIMD).
+ * </p>
+ *
+ * <p>
+ * The limit starts at its minimum and doubles each time as many calls as the
+ * limit succeed, until the first reduction; from then on, it grows by one each
+ * time as many calls as the limit succeed with the recent latency within a
+ * quarter of the baseline. It is halved when a call fails, and reduced by a
+ * fifth when the recent latency climbs to twice the baseline, which is how an
+ * overloaded server first shows. Diff sizes vary a lot, so the recent latency
+ * is smoothed; the baseline drops to it at once, but follows it up slowly, so
+ * that a server kept busy does not become the norm. The calls already in
+ * flight when the limit is reduced were made under the old limit, so their
+ * failures and latencies do not reduce it again.
+ * </p>
+ */
+class AdaptiveConcurrencyLimit {
+    private static final double SHORT_TERM_WEIGHT = 0.2;
+
+    // slower latencies move the baseline only slowly, so load does not become the norm.
+    private static final double BASELINE_WEIGHT = 0.005;
+
+    private static final double LATENCY_TOLERANCE = 2.0;
+
+    // the latency may grow this much and still count as steady.
+    private static final double STEADY_LATENCY = 1.25;
+
+    private static final double LATENCY_BACKOFF = 0.8;
+
+    private static final int MIN_SAMPLES = 10;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private int limit;
+
+    private boolean slowStart = true;
+
+    private int inFlight = 0;
+
+    // completions since the limit last changed.
+    private int completions = 0;
+
+    private long totalCompletions = 0;
+
+    // the calls that complete before this were in flight at the last decrease.
+    private long recoveryEnd = 0;
+
+    private int samples = 0;
+
+    private double shortTermLatency = 0;
+
+    private double baselineLatency = 0;
+
+    /**
+     * @param minLimit
+     *            the lowest number of calls in flight
+     * @param maxLimit
+     *            the highest number of calls in flight
+     */
+    AdaptiveConcurrencyLimit(final int minLimit, final int maxLimit) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = this.minLimit;
+    }
+
+    /**
+     * Waits until a call can be made.
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting.
+     */
+    synchronized void acquire() throws InterruptedException {
+        while (inFlight >= limit) {
+            wait();
+        }
+        inFlight++;
+    }
+
+    /**
+     * Records the end of a call.
+     *
+     * @param latency
+     *            how long the call took, in ms
+     * @param failed
+     *            true if the call failed
+     */
+    synchronized void release(final long latency, final boolean failed) {
+        inFlight--;
+        completions++;
+        totalCompletions++;
+        final boolean mayDecrease = totalCompletions > recoveryEnd;
+        if (failed) {
+            if (mayDecrease) {
+                decrease(limit / 2, "svn diff failed");
+            }
+        } else {
+            samples++;
+            if (samples == 1) {
+                shortTermLatency = latency;
+                baselineLatency = latency;
+            } else {
+                shortTermLatency += SHORT_TERM_WEIGHT * (latency - shortTermLatency);
+            }
+            if (shortTermLatency < baselineLatency) {
+                baselineLatency = shortTermLatency;
+            } else {
+                baselineLatency += BASELINE_WEIGHT * (shortTermLatency - baselineLatency);
+            }
+            if (samples >= MIN_SAMPLES && shortTermLatency > LATENCY_TOLERANCE * baselineLatency) {
+                if (mayDecrease) {
+                    decrease((int) (limit * LATENCY_BACKOFF), "latency " + (long) shortTermLatency + " ms, usually " + (long) baselineLatency + " ms");
+                }
+            } else if (completions >= limit && (samples < MIN_SAMPLES || shortTermLatency <= STEADY_LATENCY * baselineLatency)) {
+                setLimit(slowStart ? limit * 2 : limit + 1, "latency " + (long) shortTermLatency + " ms");
+            }
+        }
+        notifyAll();
+    }
+
+    private void decrease(final int newLimit, final String reason) {
+        recoveryEnd = totalCompletions + inFlight;
+        slowStart = false;
+        setLimit(newLimit, reason);
+    }
+
+    private void setLimit(final int newLimit, final String reason) {
+        final int bounded = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        completions = 0;
+        if (bounded != limit) {
+            SvnConfigurationOptions.getTaskLogger().info("svn diff concurrency " + limit + " -> " + bounded + " (" + reason + ").");
+            limit = bounded;
+        }
+    }
+
+    /**
+     * @return the current limit of calls in flight.
+     */
+    synchronized int getLimit() {
+        return limit;
+    }
+}
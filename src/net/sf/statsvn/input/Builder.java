@@ -25,7 +25,6 @@ package net.sf.statsvn.input;
 import java.io.IOException;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
@@ -50,6 +49,9 @@ import net.sf.statcvs.util.FileUtils;
 import net.sf.statcvs.util.StringUtils;
 import net.sf.statsvn.output.SvnConfigurationOptions;
 
+import edu.emory.mathcs.backport.java.util.Collections;
+import edu.emory.mathcs.backport.java.util.concurrent.ConcurrentHashMap;
+
 /**
  * <p>
  * Helps building the {@link net.sf.statsvn.model.Repository} from a SVN log. The <tt>Builder</tt> is fed by some SVN history data source, for example a SVN
@@ -69,7 +71,8 @@ import net.sf.statsvn.output.SvnConfigurationOptions;
  * 
  */
 public class Builder implements SvnLogBuilder {
-    private final Set atticFileNames = new HashSet();
+    // concurrent, as files are added to the attic by parallel passes.
+    private final Set atticFileNames = Collections.newSetFromMap(new ConcurrentHashMap());
 
     private final Map authors = new HashMap();
 
@@ -130,9 +133,7 @@ public class Builder implements SvnLogBuilder {
      *            the filename to add to the attic.
      */
     public void addToAttic(final String filename) {
-        if (!atticFileNames.contains(filename)) {
-            atticFileNames.add(filename);
-        }
+        atticFileNames.add(filename);
     }
 
     /**
@@ -421,7 +422,8 @@ public class Builder implements SvnLogBuilder {
     /**
      * New in StatSVN: Updates a particular revision for a file with new line count information. If the file or revision does not exist, action will do nothing.
      * 
-     * Necessary because line counts are not given in the log file and hence can only be added in a second pass.
+     * Necessary because line counts are not given in the log file and hence can only be added in a second pass. Only locks the file, so that the svn
+     * diff threads do not wait on each other.
      * 
      * @param filename
      *            the file to be updated
@@ -432,7 +434,7 @@ public class Builder implements SvnLogBuilder {
      * @param linesRemoved
      *            the lines that were removed
      */
-    public synchronized void updateRevision(final String filename, final String revisionNumber, final int linesAdded, final int linesRemoved) {
+    public void updateRevision(final String filename, final String revisionNumber, final int linesAdded, final int linesRemoved) {
         final FileBuilder fb = (FileBuilder) fileBuilders.get(filename);
         if (fb != null) {
             fb.updateRevision(revisionNumber, linesAdded, linesRemoved);
@@ -16,6 +16,9 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 
+import edu.emory.mathcs.backport.java.util.Queue;
+import edu.emory.mathcs.backport.java.util.concurrent.ConcurrentLinkedQueue;
+
 /**
  * <p>
  * CVS log files include lines modified for each commit and binary status of a
@@ -47,6 +50,13 @@ public class CacheBuilder {
 
 	private Element cache = null;
 
+	// path name -> path element, so that paths are not searched linearly.
+	private final Map pathsByName = new HashMap();
+
+	// revisions found by the svn diff threads, added to the DOM by the next
+	// thread that reads it, so that the diff threads never wait on each other.
+	private final Queue pendingRevisions = new ConcurrentLinkedQueue();
+
 	/**
 	 * Constructs the LineCountsBuilder by giving it a reference to the builder
 	 * currently in use.
@@ -77,6 +87,7 @@ public class CacheBuilder {
 		currentPath.setAttribute(CacheConfiguration.LATEST_REVISION, latestRevision);
 		currentPath.setAttribute(CacheConfiguration.BINARY_STATUS, binaryStatus);
 		cache.appendChild(currentPath);
+		pathsByName.put(name, currentPath);
 	}
 
 	/**
@@ -123,14 +134,7 @@ public class CacheBuilder {
 		if (currentPath != null && name.equals(currentPath.getAttribute(CacheConfiguration.NAME))) {
 			return currentPath;
 		}
-		final NodeList paths = cache.getChildNodes();
-		for (int i = 0; i < paths.getLength(); i++) {
-			final Element path = (Element) paths.item(i);
-			if (name.equals(path.getAttribute(CacheConfiguration.NAME))) {
-				return path;
-			}
-		}
-		return null;
+		return (Element) pathsByName.get(name);
 	}
 
 	/**
@@ -188,6 +192,27 @@ public class CacheBuilder {
 		}
 	}
 
+	/**
+	 * Forwards the line counts of the cache to the {@link SvnLogBuilder}, for
+	 * a cache that was read before the files were built.
+	 */
+	public synchronized void applyLineCounts() {
+		flushRevisions();
+		for (final Iterator iter = pathsByName.entrySet().iterator(); iter.hasNext();) {
+			final Map.Entry entry = (Map.Entry) iter.next();
+			final String fileName = repositoryFileManager.absoluteToRelativePath((String) entry.getKey());
+			if (fileName == null) {
+				continue;
+			}
+			final NodeList revisions = ((Element) entry.getValue()).getElementsByTagName(CacheConfiguration.REVISION);
+			for (int i = 0; i < revisions.getLength(); i++) {
+				final Element revision = (Element) revisions.item(i);
+				builder.updateRevision(fileName, revision.getAttribute(CacheConfiguration.NUMBER), Integer.parseInt(revision
+				        .getAttribute(CacheConfiguration.ADDED)), Integer.parseInt(revision.getAttribute(CacheConfiguration.REMOVED)));
+			}
+		}
+	}
+
 	/**
 	 * Builds the DOM root.
 	 * 
@@ -198,6 +223,7 @@ public class CacheBuilder {
 		DocumentBuilder builderDOM;
 		builderDOM = factoryDOM.newDocumentBuilder();
 		document = builderDOM.newDocument();
+		pathsByName.clear();
 		cache = document.createElement(CacheConfiguration.CACHE);
 		cache.setAttribute(CacheConfiguration.PROJECT, ConfigurationOptions.getProjectName());
 		cache.setAttribute(CacheConfiguration.XML_VERSION, "1.0");
@@ -209,7 +235,8 @@ public class CacheBuilder {
 	 * 
 	 * @return the DOM document.
 	 */
-	public Document getDocument() {
+	public synchronized Document getDocument() {
+		flushRevisions();
 		return document;
 	}
 
@@ -230,20 +257,47 @@ public class CacheBuilder {
 	 * @param removed
 	 *            the number of lines removed
 	 */
-	public synchronized void newRevision(String name, final String number, final String added, final String removed, final boolean binaryStatus) {
-		name = repositoryFileManager.relativeToAbsolutePath(name);
+	public void newRevision(final String name, final String number, final String added, final String removed, final boolean binaryStatus) {
+		newAbsoluteRevision(repositoryFileManager.relativeToAbsolutePath(name), number, added, removed, binaryStatus);
+	}
+
+	/**
+	 * Adds a revision to the DOM for a path that may not be under the working
+	 * folder, such as a file on another branch of the same repository. The
+	 * information is persisted so that the other branch finds it in the cache.
+	 * 
+	 * Does not lock: the revision is queued and added to the DOM when the DOM
+	 * is next read.
+	 * 
+	 * @param name
+	 *            the absolute path of the file in the repository
+	 * @param number
+	 *            the revision number
+	 * @param added
+	 *            the number of lines added
+	 * @param removed
+	 *            the number of lines removed
+	 */
+	public void newAbsoluteRevision(final String name, final String number, final String added, final String removed, final boolean binaryStatus) {
+		pendingRevisions.add(new String[] { name, number, added, removed, binaryStatus ? CacheConfiguration.BINARY : CacheConfiguration.NOT_BINARY });
+	}
+
+	/**
+	 * Adds the queued revisions to the DOM.
+	 */
+	private synchronized void flushRevisions() {
 		checkDocument();
-		if (document != null) {
-			currentPath = findDOMPath(name);
+		if (document == null) {
+			return;
+		}
+		String[] pending;
+		while ((pending = (String[]) pendingRevisions.poll()) != null) {
+			currentPath = findDOMPath(pending[0]);
 			if (currentPath == null) {
 				// changes currentPath to new one
-				addDOMPath(name, "0", CacheConfiguration.UNKNOWN);
-			}
-			String sBinaryStatus = CacheConfiguration.NOT_BINARY;
-			if (binaryStatus) {
-				sBinaryStatus = CacheConfiguration.BINARY;
+				addDOMPath(pending[0], "0", CacheConfiguration.UNKNOWN);
 			}
-			addDOMRevision(number, added, removed, sBinaryStatus);
+			addDOMRevision(pending[1], pending[2], pending[3], pending[4]);
 		}
 	}
 
@@ -270,38 +324,20 @@ public class CacheBuilder {
 	 * @param removed
 	 *            the number of lines removed
 	 */
-	public void updateBinaryStatus(final Collection fileBuilders, final String revisionNumber) {
-		// change data structure to a more appropriate one for lookup
-		final Map mFileBuilders = new HashMap();
-		for (final Iterator iter = fileBuilders.iterator(); iter.hasNext();) {
-			final FileBuilder fileBuilder = (FileBuilder) iter.next();
-			mFileBuilders.put(fileBuilder.getName(), fileBuilder);
-		}
-		if (!mFileBuilders.isEmpty()) {
-			// go through all the paths in the DOM and update their binary
-			// status
-			// remove the fileBuilder once its corresponding path in the DOM was
-			// dealt with
+	public synchronized void updateBinaryStatus(final Collection fileBuilders, final String revisionNumber) {
+		if (!fileBuilders.isEmpty()) {
+			// update the binary status of the paths already in the DOM and add
+			// the others.
 			checkDocument();
-			final NodeList paths = cache.getChildNodes();
-			for (int i = 0; i < paths.getLength(); i++) {
-				final Element path = (Element) paths.item(i);
-				if (mFileBuilders.containsKey(repositoryFileManager.absoluteToRelativePath(path.getAttribute(CacheConfiguration.NAME)))) {
-					final FileBuilder fileBuilder = (FileBuilder) mFileBuilders.get(repositoryFileManager.absoluteToRelativePath(path
-					        .getAttribute(CacheConfiguration.NAME)));
-					updateDOMPath(path, fileBuilder.isBinary(), revisionNumber);
-					mFileBuilders.remove(repositoryFileManager.absoluteToRelativePath(path.getAttribute(CacheConfiguration.NAME)));
-				}
-			}
-			// go through remaining fileBuilders and add them to the DOM
-			final Collection cFileBuilders = mFileBuilders.values();
-			for (final Iterator iter = cFileBuilders.iterator(); iter.hasNext();) {
+			for (final Iterator iter = fileBuilders.iterator(); iter.hasNext();) {
 				final FileBuilder fileBuilder = (FileBuilder) iter.next();
-				String binaryStatus = CacheConfiguration.NOT_BINARY;
-				if (fileBuilder.isBinary()) {
-					binaryStatus = CacheConfiguration.BINARY;
+				final String name = repositoryFileManager.relativeToAbsolutePath(fileBuilder.getName());
+				final Element path = findDOMPath(name);
+				if (path != null) {
+					updateDOMPath(path, fileBuilder.isBinary(), revisionNumber);
+				} else {
+					addDOMPath(name, revisionNumber, fileBuilder.isBinary() ? CacheConfiguration.BINARY : CacheConfiguration.NOT_BINARY);
 				}
-				addDOMPath(repositoryFileManager.relativeToAbsolutePath(fileBuilder.getName()), revisionNumber, binaryStatus);
 			}
 		}
 
@@ -318,10 +354,76 @@ public class CacheBuilder {
 	 *         is lower or equal to the path's LATEST_REVISION
 	 */
 	public synchronized boolean isBinary(final String fileName, final String revisionNumber) {
+		return isAbsoluteBinary(repositoryFileManager.relativeToAbsolutePath(fileName), revisionNumber);
+	}
+
+	/**
+	 * Checks whether the line counts of a revision of a file are cached.
+	 * 
+	 * @param fileName
+	 *            the relative filename
+	 * @param revisionNumber
+	 *            the revision
+	 * @return true if the revision is in the cache.
+	 */
+	public synchronized boolean hasRevision(final String fileName, final String revisionNumber) {
+		flushRevisions();
+		final Element path = findDOMPath(repositoryFileManager.relativeToAbsolutePath(fileName));
+		if (path == null) {
+			return false;
+		}
+		final NodeList revisions = path.getElementsByTagName(CacheConfiguration.REVISION);
+		for (int i = 0; i < revisions.getLength(); i++) {
+			if (revisionNumber.equals(((Element) revisions.item(i)).getAttribute(CacheConfiguration.NUMBER))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks whether a path was ever found binary: its cached binary status,
+	 * whatever the revision it is valid for, or the binary status of one of
+	 * its cached revisions.
+	 * 
+	 * @param fileName
+	 *            the relative filename
+	 * @return true if the cache has seen the path binary.
+	 */
+	public synchronized boolean hasBinaryHistory(final String fileName) {
+		flushRevisions();
+		final Element path = findDOMPath(repositoryFileManager.relativeToAbsolutePath(fileName));
+		if (path == null) {
+			return false;
+		}
+		if (CacheConfiguration.BINARY.equals(path.getAttribute(CacheConfiguration.BINARY_STATUS))) {
+			return true;
+		}
+		final NodeList revisions = path.getElementsByTagName(CacheConfiguration.REVISION);
+		for (int i = 0; i < revisions.getLength(); i++) {
+			if (CacheConfiguration.BINARY.equals(((Element) revisions.item(i)).getAttribute(CacheConfiguration.BINARY_STATUS))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks the cached binary status of a path that may not be under the
+	 * working folder, such as the source of a copy.
+	 * 
+	 * @param name
+	 *            the absolute path of the file in the repository
+	 * @param revisionNumber
+	 *            the revision of the path to be checked
+	 * @return true if the path's BINARY_STATUS is true and the revisionNumber
+	 *         is lower or equal to the path's LATEST_REVISION
+	 */
+	public synchronized boolean isAbsoluteBinary(final String name, final String revisionNumber) {
 		int latestRevision = 0;
 		int revisionToCheck = -1;
-		checkDocument();
-		final Element path = findDOMPath(repositoryFileManager.relativeToAbsolutePath(fileName));
+		flushRevisions();
+		final Element path = findDOMPath(name);
 		if (path == null) {
 			return false;
 		}
@@ -341,4 +443,82 @@ public class CacheBuilder {
 		}
 		return false;
 	}
+
+	/**
+	 * Takes the binary statuses of the cache, the queued revisions included,
+	 * for a pass that reads them from several threads: the index is read
+	 * without locking. It does not see the revisions added afterwards.
+	 * 
+	 * @return the index of the binary statuses.
+	 */
+	public synchronized BinaryIndex createBinaryIndex() {
+		flushRevisions();
+		// absolute path name -> int[] of [latest revision, binary, ever binary]
+		final Map paths = new HashMap();
+		for (final Iterator iter = pathsByName.entrySet().iterator(); iter.hasNext();) {
+			final Map.Entry entry = (Map.Entry) iter.next();
+			final Element path = (Element) entry.getValue();
+			int latestRevision;
+			try {
+				latestRevision = Integer.parseInt(path.getAttribute(CacheConfiguration.LATEST_REVISION));
+			} catch (final NumberFormatException e) {
+				// as in isAbsoluteBinary: the binary status holds for any revision.
+				latestRevision = Integer.MAX_VALUE;
+			}
+			final boolean isBinary = CacheConfiguration.BINARY.equals(path.getAttribute(CacheConfiguration.BINARY_STATUS));
+			boolean wasBinary = isBinary;
+			final NodeList revisions = path.getElementsByTagName(CacheConfiguration.REVISION);
+			for (int i = 0; !wasBinary && i < revisions.getLength(); i++) {
+				wasBinary = CacheConfiguration.BINARY.equals(((Element) revisions.item(i)).getAttribute(CacheConfiguration.BINARY_STATUS));
+			}
+			paths.put(entry.getKey(), new int[] { latestRevision, isBinary ? 1 : 0, wasBinary ? 1 : 0 });
+		}
+		return new BinaryIndex(paths);
+	}
+
+	/**
+	 * The binary statuses of the cache at one point, with the lookups of
+	 * {@link CacheBuilder#isBinary(String, String)},
+	 * {@link CacheBuilder#isAbsoluteBinary(String, String)} and
+	 * {@link CacheBuilder#hasBinaryHistory(String)}. Immutable, so that
+	 * several threads read it at once.
+	 */
+	public final class BinaryIndex {
+		private final Map paths;
+
+		private BinaryIndex(final Map paths) {
+			this.paths = paths;
+		}
+
+		/**
+		 * @see CacheBuilder#isBinary(String, String)
+		 */
+		public boolean isBinary(final String fileName, final String revisionNumber) {
+			return isAbsoluteBinary(repositoryFileManager.relativeToAbsolutePath(fileName), revisionNumber);
+		}
+
+		/**
+		 * @see CacheBuilder#isAbsoluteBinary(String, String)
+		 */
+		public boolean isAbsoluteBinary(final String name, final String revisionNumber) {
+			final int[] path = (int[]) paths.get(name);
+			if (path == null || path[1] == 0) {
+				return false;
+			}
+			try {
+				return path[0] >= Integer.parseInt(revisionNumber);
+			} catch (final NumberFormatException e) {
+				SvnConfigurationOptions.getTaskLogger().log("Ignoring invalid revision number " + revisionNumber + " for " + name);
+				return true;
+			}
+		}
+
+		/**
+		 * @see CacheBuilder#hasBinaryHistory(String)
+		 */
+		public boolean hasBinaryHistory(final String fileName) {
+			final int[] path = (int[]) paths.get(repositoryFileManager.relativeToAbsolutePath(fileName));
+			return path != null && path[2] == 1;
+		}
+	}
 }
@@ -0,0 +1,293 @@
+package net.sf.statsvn.input;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import net.sf.statsvn.output.SvnConfigurationOptions;
+
+/**
+ * <p>
+ * Keeps commit messages out of the heap while the svn log is being processed.
+ * Instead of holding the text of every &lt;msg&gt; element, the log ingest
+ * only keeps a (file offset, length) {@link Handle} per commit. The message
+ * is read back on demand from the memory-mapped log file, once per commit:
+ * the file revisions of a commit all share the text of its handle.
+ * </p>
+ *
+ * <p>
+ * The store scans the raw log bytes in lock-step with the SAX parser:
+ * {@link #getMessage(int)} returns the byte range of the Nth &lt;msg&gt;
+ * element. The last handle is remembered so that several handlers fed by the
+ * same parse can share one store. As svn always writes its xml log in UTF-8
+ * without CDATA sections, the only decoding required on read-back is the
+ * unescaping of character references and the xml end-of-line normalization.
+ * </p>
+ */
+public class CommitMessageStore {
+    // keep segments well under the 2GB limit of a single mapping.
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    private static final String ENCODING = "UTF-8";
+
+    private static final byte[] MSG_START = { '<', 'm', 's', 'g' };
+
+    private static final byte[] MSG_END = { '<', '/', 'm', 's', 'g', '>' };
+
+    private final MappedByteBuffer[] segments;
+
+    private final long size;
+
+    private long scanPosition = 0;
+
+    private int lastIndex = -1;
+
+    private Handle lastHandle;
+
+    /**
+     * A reference to a commit message in the log file.
+     */
+    public final class Handle {
+        private final long offset;
+
+        private final int length;
+
+        private String text;
+
+        private Handle(final long offset, final int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /**
+         * The message is decoded on the first call only, when the revisions
+         * are built, and is kept from then on as the revisions hold it
+         * anyway.
+         *
+         * @return the decoded commit message.
+         */
+        public String getText() {
+            synchronized (CommitMessageStore.this) {
+                if (text == null) {
+                    text = read(this);
+                }
+                return text;
+            }
+        }
+
+        /**
+         * @return the number of raw bytes of the message in the log file.
+         */
+        public int getLength() {
+            return length;
+        }
+    }
+
+    /**
+     * Maps the given log file in memory. The mapping stays valid after the
+     * channel is closed.
+     *
+     * @param channel
+     *            the channel of the svn log file.
+     * @throws IOException
+     *             if the file cannot be mapped.
+     */
+    public CommitMessageStore(final FileChannel channel) throws IOException {
+        size = channel.size();
+        final int nbSegments = (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        segments = new MappedByteBuffer[nbSegments];
+        for (int i = 0; i < nbSegments; i++) {
+            final long start = i * SEGMENT_SIZE;
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+        }
+    }
+
+    /**
+     * Verifies that the log file is encoded in UTF-8, the only encoding this
+     * store can decode.
+     *
+     * @return true if the messages can be read back from the log file.
+     */
+    public boolean isSupported() {
+        final int prologLength = (int) Math.min(size, 100);
+        final String prolog = new String(readBytes(0, prologLength), 0, prologLength);
+        if (!prolog.startsWith("<?xml")) {
+            return true;
+        }
+        final int end = prolog.indexOf("?>");
+        final String declaration = end >= 0 ? prolog.substring(0, end) : prolog;
+        final int encoding = declaration.indexOf("encoding=");
+        return encoding < 0 || declaration.substring(encoding + "encoding=".length() + 1).toUpperCase().startsWith(ENCODING);
+    }
+
+    /**
+     * Returns the handle of the given &lt;msg&gt; element. Messages must be
+     * requested in document order; the same index may be requested several
+     * times in a row.
+     *
+     * @param index
+     *            the zero-based index of the message in the log file.
+     * @return the handle to the message or null if it was not found.
+     */
+    public synchronized Handle getMessage(final int index) {
+        if (index == lastIndex) {
+            return lastHandle;
+        }
+        if (index != lastIndex + 1) {
+            return null;
+        }
+        lastIndex = index;
+        lastHandle = nextMessage();
+        return lastHandle;
+    }
+
+    /**
+     * Finds the next &lt;msg&gt; element in the log file.
+     *
+     * @return the handle to the message or null if no message was found.
+     */
+    private Handle nextMessage() {
+        long start = indexOf(MSG_START, scanPosition);
+        while (start >= 0) {
+            final long next = start + MSG_START.length;
+            if (next >= size) {
+                return null;
+            }
+            final byte b = byteAt(next);
+            if (b == '>' || b == '/' || b == ' ' || b == '\t' || b == '\r' || b == '\n') {
+                break;
+            }
+            // <msgsomething>; keep searching.
+            start = indexOf(MSG_START, next);
+        }
+        if (start < 0) {
+            return null;
+        }
+        final long tagEnd = indexOf(new byte[] { '>' }, start);
+        if (tagEnd < 0) {
+            return null;
+        }
+        if (byteAt(tagEnd - 1) == '/') {
+            // <msg/>
+            scanPosition = tagEnd + 1;
+            return new Handle(tagEnd + 1, 0);
+        }
+        final long end = indexOf(MSG_END, tagEnd + 1);
+        if (end < 0 || end - tagEnd - 1 > Integer.MAX_VALUE) {
+            return null;
+        }
+        scanPosition = end + MSG_END.length;
+        return new Handle(tagEnd + 1, (int) (end - tagEnd - 1));
+    }
+
+    /**
+     * Reads a message back from the log file.
+     *
+     * @param handle
+     *            the message handle.
+     * @return the decoded message.
+     */
+    protected synchronized String read(final Handle handle) {
+        return decode(readBytes(handle.offset, handle.length));
+    }
+
+    private byte byteAt(final long position) {
+        return segments[(int) (position / SEGMENT_SIZE)].get((int) (position % SEGMENT_SIZE));
+    }
+
+    private long indexOf(final byte[] pattern, final long from) {
+        for (long i = from; i <= size - pattern.length; i++) {
+            if (byteAt(i) != pattern[0]) {
+                continue;
+            }
+            int j = 1;
+            while (j < pattern.length && byteAt(i + j) == pattern[j]) {
+                j++;
+            }
+            if (j == pattern.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private byte[] readBytes(final long offset, final int length) {
+        final byte[] bytes = new byte[length];
+        int copied = 0;
+        while (copied < length) {
+            final long position = offset + copied;
+            final MappedByteBuffer segment = (MappedByteBuffer) segments[(int) (position / SEGMENT_SIZE)].duplicate();
+            segment.position((int) (position % SEGMENT_SIZE));
+            final int count = Math.min(length - copied, segment.remaining());
+            segment.get(bytes, copied, count);
+            copied += count;
+        }
+        return bytes;
+    }
+
+    /**
+     * Decodes the raw xml text: UTF-8, end-of-line normalization and
+     * character references.
+     */
+    private static String decode(final byte[] bytes) {
+        String raw;
+        try {
+            raw = new String(bytes, ENCODING);
+        } catch (final UnsupportedEncodingException e) {
+            raw = new String(bytes);
+        }
+        if (raw.indexOf('&') < 0 && raw.indexOf('\r') < 0) {
+            return raw;
+        }
+        final StringBuffer sb = new StringBuffer(raw.length());
+        for (int i = 0; i < raw.length(); i++) {
+            final char c = raw.charAt(i);
+            if (c == '\r') {
+                sb.append('\n');
+                if (i + 1 < raw.length() && raw.charAt(i + 1) == '\n') {
+                    i++;
+                }
+            } else if (c == '&') {
+                final int semi = raw.indexOf(';', i);
+                if (semi < 0) {
+                    sb.append(c);
+                    continue;
+                }
+                final String entity = raw.substring(i + 1, semi);
+                if (entity.equals("lt")) {
+                    sb.append('<');
+                } else if (entity.equals("gt")) {
+                    sb.append('>');
+                } else if (entity.equals("amp")) {
+                    sb.append('&');
+                } else if (entity.equals("quot")) {
+                    sb.append('"');
+                } else if (entity.equals("apos")) {
+                    sb.append('\'');
+                } else if (entity.startsWith("#x")) {
+                    appendCodePoint(sb, Integer.parseInt(entity.substring(2), 16));
+                } else if (entity.startsWith("#")) {
+                    appendCodePoint(sb, Integer.parseInt(entity.substring(1)));
+                } else {
+                    SvnConfigurationOptions.getTaskLogger().log("Unknown entity in commit message: &" + entity + ";");
+                    sb.append(raw.substring(i, semi + 1));
+                }
+                i = semi;
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void appendCodePoint(final StringBuffer sb, final int codePoint) {
+        if (codePoint < 0x10000) {
+            sb.append((char) codePoint);
+        } else {
+            final int offset = codePoint - 0x10000;
+            sb.append((char) (0xD800 + (offset >> 10)));
+            sb.append((char) (0xDC00 + (offset & 0x3FF)));
+        }
+    }
+}
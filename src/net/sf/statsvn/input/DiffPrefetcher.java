@@ -0,0 +1,138 @@
+package net.sf.statsvn.input;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Vector;
+
+import net.sf.statsvn.output.SvnConfigurationOptions;
+import net.sf.statsvn.util.BinaryDiffException;
+
+import edu.emory.mathcs.backport.java.util.concurrent.Callable;
+import edu.emory.mathcs.backport.java.util.concurrent.ConcurrentHashMap;
+import edu.emory.mathcs.backport.java.util.concurrent.ExecutionException;
+import edu.emory.mathcs.backport.java.util.concurrent.ExecutorService;
+import edu.emory.mathcs.backport.java.util.concurrent.Executors;
+import edu.emory.mathcs.backport.java.util.concurrent.Future;
+
+/**
+ * <p>
+ * Fetches the svn diffs of revisions while the log is still being parsed, so
+ * that the network waits of a cold run overlap with the parsing. The parser
+ * offers each revision as soon as its log entry is read and one of its files
+ * is missing from the cache.
+ * </p>
+ *
+ * <p>
+ * The diffs are only fetched here. Once the implicit actions are verified, the
+ * per revision diff tasks take the results of the revisions they need, and
+ * apply them as if they had run svn diff themselves. Revisions that turn out
+ * not to need a diff are discarded.
+ * </p>
+ */
+class DiffPrefetcher {
+    private final SvnLogfileParser parser;
+
+    private final ExecutorService executor;
+
+    // revision number -> Future of the diff results
+    private final Map diffs = new ConcurrentHashMap();
+
+    private int taken = 0;
+
+    /**
+     * @param parser
+     *            the parser whose {@link SvnLogfileParser#getRevisionDiff(String)}
+     *            fetches the diffs.
+     */
+    DiffPrefetcher(final SvnLogfileParser parser) {
+        this.parser = parser;
+        this.executor = Executors.newFixedThreadPool(Math.max(1, SvnConfigurationOptions.getNumberSvnDiffThreads()));
+    }
+
+    /**
+     * Starts fetching the diff of a revision, unless it already is.
+     *
+     * @param revision
+     *            the revision number
+     */
+    void prefetch(final String revision) {
+        if (diffs.containsKey(revision)) {
+            return;
+        }
+        diffs.put(revision, executor.submit(new Callable() {
+            public Object call() throws Exception {
+                return parser.getRevisionDiff(revision);
+            }
+        }));
+    }
+
+    /**
+     * @param revision
+     *            the revision number
+     * @return true if the diff of the revision is fetched, or being fetched,
+     *         and was not taken yet.
+     */
+    boolean isPrefetched(final String revision) {
+        return diffs.containsKey(revision);
+    }
+
+    /**
+     * No more revisions are offered: the fetches already started complete,
+     * and the threads end with them.
+     */
+    void endOfLog() {
+        executor.shutdown();
+        SvnConfigurationOptions.getTaskLogger().log("prefetching svn diff of " + diffs.size() + " revisions during parse.");
+    }
+
+    /**
+     * Takes the diff of a revision, waiting for it if it is still being
+     * fetched.
+     *
+     * @param revision
+     *            the revision number
+     * @return the results of {@link SvnLogfileParser#getRevisionDiff(String)},
+     *         or null if the revision was not prefetched.
+     * @throws IOException
+     *             if the diff failed.
+     * @throws BinaryDiffException
+     *             if the diff failed on a binary file.
+     */
+    Vector take(final String revision) throws IOException, BinaryDiffException {
+        final Future diff = (Future) diffs.remove(revision);
+        if (diff == null) {
+            return null;
+        }
+        synchronized (this) {
+            taken++;
+        }
+        try {
+            return (Vector) diff.get();
+        } catch (final InterruptedException e) {
+            throw new IOException("Interrupted while waiting for the svn diff of r" + revision);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof BinaryDiffException) {
+                throw (BinaryDiffException) e.getCause();
+            }
+            throw new IOException("svn diff of r" + revision + " failed: " + e.getCause());
+        }
+    }
+
+    /**
+     * Discards the diffs that no task took, cancelling those not fetched yet.
+     */
+    void discardRemaining() {
+        int discarded = 0;
+        for (final Iterator iter = diffs.values().iterator(); iter.hasNext();) {
+            ((Future) iter.next()).cancel(false);
+            discarded++;
+        }
+        diffs.clear();
+        executor.shutdownNow();
+        SvnConfigurationOptions.getTaskLogger().log("used " + taken + " prefetched svn diffs, discarded " + discarded + ".");
+    }
+}
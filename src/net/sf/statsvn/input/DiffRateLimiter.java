@@ -0,0 +1,155 @@
+package net.sf.statsvn.input;
+
+import java.util.Calendar;
+import java.util.Iterator;
+import java.util.List;
+
+import net.sf.statsvn.output.SvnConfigurationOptions;
+import net.sf.statsvn.util.ProcessUtils;
+
+/**
+ * <p>
+ * Keeps the svn diff traffic under the caps of the server administrators,
+ * with two token buckets: one for the requests per second, and one for the
+ * bytes per second of svn diff output. A call takes a request token, waiting for
+ * one if needed; the bytes are only known once read, so they are taken
+ * afterwards, and the next calls wait while the byte bucket is in debt. Each
+ * bucket holds at most one second of its rate, so the calls go as fast as the
+ * caps allow, with short bursts, whatever the number of threads.
+ * </p>
+ *
+ * <p>
+ * The rates may depend on the hour of the day, such as full speed at night
+ * and throttled during work hours: see {@link
+ * SvnConfigurationOptions#getSvnRateSchedule()}. A rate of 0 is not limited.
+ * </p>
+ */
+class DiffRateLimiter {
+    // the longest wait before the rates of the hour are looked at again.
+    private static final long MAX_WAIT_MS = 1000;
+
+    private final double baseRequestRate;
+
+    private final double baseByteRate;
+
+    // of double[4]: from hour, to hour, requests per second, bytes per second
+    private final List schedule;
+
+    private double requestTokens;
+
+    private double byteTokens;
+
+    private long lastRefill;
+
+    private long bytesCounted;
+
+    private double currentRequestRate = -1;
+
+    private double currentByteRate = -1;
+
+    /**
+     * Creates the limiter of the configured rates.
+     *
+     * @return the limiter, or null if no rate is limited.
+     */
+    static DiffRateLimiter create() {
+        final double requestRate = SvnConfigurationOptions.getSvnRequestRate();
+        final double byteRate = SvnConfigurationOptions.getSvnByteRate();
+        final List schedule = SvnConfigurationOptions.getSvnRateSchedule();
+        if (requestRate <= 0 && byteRate <= 0 && schedule.isEmpty()) {
+            return null;
+        }
+        return new DiffRateLimiter(requestRate, byteRate, schedule);
+    }
+
+    DiffRateLimiter(final double requestRate, final double byteRate, final List schedule) {
+        this.baseRequestRate = requestRate;
+        this.baseByteRate = byteRate;
+        this.schedule = schedule;
+        this.lastRefill = System.currentTimeMillis();
+        this.bytesCounted = ProcessUtils.getTotalBytesRead();
+        this.requestTokens = Math.max(1, requestRate);
+        this.byteTokens = byteRate;
+    }
+
+    /**
+     * Waits until the rates allow another call.
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting.
+     */
+    synchronized void acquire() throws InterruptedException {
+        while (true) {
+            final long now = System.currentTimeMillis();
+            refill(now);
+            long waitMs = 0;
+            if (currentRequestRate > 0 && requestTokens < 1) {
+                waitMs = (long) Math.ceil((1 - requestTokens) * 1000 / currentRequestRate);
+            }
+            if (currentByteRate > 0 && byteTokens < 0) {
+                waitMs = Math.max(waitMs, (long) Math.ceil(-byteTokens * 1000 / currentByteRate));
+            }
+            if (waitMs <= 0) {
+                requestTokens--;
+                return;
+            }
+            wait(Math.min(waitMs, MAX_WAIT_MS));
+        }
+    }
+
+    /**
+     * Adds the tokens of the time elapsed, and takes the bytes read from svn
+     * diff since the last time.
+     */
+    private void refill(final long now) {
+        final double[] rates = getRates(now);
+        if (rates[0] != currentRequestRate || rates[1] != currentByteRate) {
+            SvnConfigurationOptions.getTaskLogger().info(
+                    "svn diff rate limit now " + describe(rates[0], " requests/s") + ", " + describe(rates[1], " bytes/s") + ".");
+            currentRequestRate = rates[0];
+            currentByteRate = rates[1];
+        }
+        final double seconds = (now - lastRefill) / 1000.0;
+        lastRefill = now;
+
+        if (currentRequestRate > 0) {
+            requestTokens = Math.min(Math.max(1, currentRequestRate), requestTokens + seconds * currentRequestRate);
+        } else {
+            requestTokens = 1;
+        }
+
+        final long bytesRead = ProcessUtils.getTotalBytesRead();
+        if (currentByteRate > 0) {
+            byteTokens = Math.min(currentByteRate, byteTokens + seconds * currentByteRate) - (bytesRead - bytesCounted);
+        } else {
+            byteTokens = 0;
+        }
+        bytesCounted = bytesRead;
+    }
+
+    private static String describe(final double rate, final String unit) {
+        if (rate <= 0) {
+            return "unlimited" + unit;
+        }
+        return (rate == (long) rate ? String.valueOf((long) rate) : String.valueOf(rate)) + unit;
+    }
+
+    /**
+     * @return the requests and bytes per second allowed at a time of day.
+     */
+    private double[] getRates(final long now) {
+        if (!schedule.isEmpty()) {
+            final Calendar calendar = Calendar.getInstance();
+            calendar.setTimeInMillis(now);
+            final int hour = calendar.get(Calendar.HOUR_OF_DAY);
+            for (final Iterator iter = schedule.iterator(); iter.hasNext();) {
+                final double[] window = (double[]) iter.next();
+                final boolean inWindow = window[0] <= window[1] ? hour >= window[0] && hour < window[1] : hour >= window[0] || hour < window[1];
+                if (inWindow) {
+                    return new double[] { window[2], window[3] };
+                }
+            }
+        }
+        return new double[] { baseRequestRate, baseByteRate };
+    }
+}
@@ -0,0 +1,523 @@
+package net.sf.statsvn.input;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import net.sf.statcvs.input.LogSyntaxException;
+import net.sf.statsvn.input.DumpRepositoryFileManager.NodeState;
+import net.sf.statsvn.output.SvnConfigurationOptions;
+import net.sf.statsvn.util.LineDiff;
+import net.sf.statsvn.util.SvnDiffUtils;
+
+import org.tmatesoft.svn.core.ISVNCanceller;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNPropertyValue;
+import org.tmatesoft.svn.core.internal.delta.SVNDeltaReader;
+import org.tmatesoft.svn.core.internal.wc.ISVNLoadHandler;
+import org.tmatesoft.svn.core.internal.wc.SVNDumpStreamParser;
+import org.tmatesoft.svn.core.io.ISVNDeltaConsumer;
+import org.tmatesoft.svn.core.io.diff.SVNDeltaProcessor;
+import org.tmatesoft.svn.core.io.diff.SVNDiffWindow;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+import edu.emory.mathcs.backport.java.util.concurrent.LinkedBlockingQueue;
+import edu.emory.mathcs.backport.java.util.concurrent.ThreadPoolExecutor;
+import edu.emory.mathcs.backport.java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Parses a repository dump, as written by <tt>svnadmin dump</tt> with or
+ * without <tt>--deltas</tt> and <tt>--incremental</tt>, possibly compressed
+ * with gzip. The dump holds both the log and the content of every revision, so
+ * no working copy, <tt>svn info</tt> or <tt>svn diff</tt> is needed: the log
+ * entries are given to a {@link SvnXmlLogFileHandler} as if they had been read
+ * from the xml log, and the lines added and removed by each revision are
+ * counted with a {@link LineDiff} of the texts of the dump.
+ * </p>
+ *
+ * <p>
+ * The dump is read once. The texts are rebuilt in a {@link
+ * DumpRepositoryFileManager} and the line diffs are computed by a pool of
+ * threads while the rest of the dump is read. Post-parse processing is that of
+ * {@link SvnLogfileParser}, with the line counts taken from the repository
+ * file manager. With an incremental dump, the files changed by the first
+ * revisions have no line counts until their text appears in full.
+ * </p>
+ */
+public class DumpFileParser extends SvnLogfileParser {
+    private static final String MIME_TYPE = "svn:mime-type";
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+
+    // line diffs waiting for a thread, per thread.
+    private static final int QUEUED_DIFFS = 16;
+
+    private final SvnLogBuilder builder;
+
+    private final InputStream logFile;
+
+    private final DumpRepositoryFileManager repositoryFileManager;
+
+    /**
+     * Default Constructor
+     *
+     * @param repositoryFileManager
+     *            the repository file manager, filled from the dump.
+     * @param logFile
+     *            a <tt>Reader</tt> containing the dump
+     * @param builder
+     *            the builder that will process the log information
+     */
+    public DumpFileParser(final DumpRepositoryFileManager repositoryFileManager, final InputStream logFile, final SvnLogBuilder builder) {
+        super(repositoryFileManager, logFile, builder);
+        this.logFile = logFile;
+        this.builder = builder;
+        this.repositoryFileManager = repositoryFileManager;
+    }
+
+    /**
+     * Reads the dump, then gives its log entries to the builder, from the most
+     * recent one, as svn log does.
+     *
+     * @return the SaxParserFactory, so that it can be reused.
+     * @throws IOException
+     *             errors while reading file.
+     * @throws LogSyntaxException
+     *             invalid dump.
+     */
+    protected SAXParserFactory parseSvnLog() throws IOException, LogSyntaxException {
+        final long startTime = System.currentTimeMillis();
+        SvnConfigurationOptions.getTaskLogger().log("starting to parse svn dump...");
+
+        final int threads = Runtime.getRuntime().availableProcessors();
+        final ThreadPoolExecutor poolService = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue(threads
+                * QUEUED_DIFFS), new ThreadPoolExecutor.CallerRunsPolicy());
+        final DumpHandler dumpHandler = new DumpHandler(poolService);
+        try {
+            new SVNDumpStreamParser(ISVNCanceller.NULL).parseDumpStream(openDump(logFile), dumpHandler, Charset.forName("UTF-8").newDecoder());
+        } catch (final SVNException e) {
+            throw new LogSyntaxException("svn dump: " + e.getMessage());
+        } finally {
+            poolService.shutdown();
+            try {
+                poolService.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (dumpHandler.getError() != null) {
+            throw dumpHandler.getError();
+        }
+
+        final List entries = dumpHandler.getLogEntries();
+        final SvnXmlLogFileHandler handler = new SvnXmlLogFileHandler(builder, repositoryFileManager);
+        try {
+            startElement(handler, "log", null);
+            for (int i = entries.size() - 1; i >= 0; i--) {
+                ((LogEntry) entries.get(i)).replay(handler);
+            }
+            endElement(handler, "log");
+        } catch (final SAXException e) {
+            throw new LogSyntaxException("svn dump: " + e.getMessage());
+        }
+
+        SvnConfigurationOptions.getTaskLogger().log(
+                "parsing svn dump finished in " + (System.currentTimeMillis() - startTime) + " ms, " + entries.size() + " revisions.");
+        return SAXParserFactory.newInstance();
+    }
+
+    /**
+     * Uncompresses the dump if it was compressed with gzip. The dump parser
+     * expects every read to return all the bytes it asks for.
+     */
+    private static InputStream openDump(final InputStream in) throws IOException {
+        InputStream dump = new BufferedInputStream(in);
+        dump.mark(2);
+        final int magic = dump.read() | (dump.read() << 8);
+        dump.reset();
+        if (magic == GZIP_MAGIC) {
+            dump = new BufferedInputStream(new GZIPInputStream(dump));
+        }
+        return new FilterInputStream(dump) {
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                int total = 0;
+                while (total < len) {
+                    final int read = super.read(b, off + total, len - total);
+                    if (read < 0) {
+                        return total > 0 ? total : -1;
+                    }
+                    total += read;
+                }
+                return total;
+            }
+        };
+    }
+
+    private static void textElement(final SvnXmlLogFileHandler handler, final String name, final String text) throws SAXException {
+        startElement(handler, name, null);
+        handler.characters(text.toCharArray(), 0, text.length());
+        endElement(handler, name);
+    }
+
+    private static void startElement(final SvnXmlLogFileHandler handler, final String name, final AttributesImpl attributes) throws SAXException {
+        handler.startElement("", name, name, attributes != null ? attributes : new AttributesImpl());
+    }
+
+    private static void endElement(final SvnXmlLogFileHandler handler, final String name) throws SAXException {
+        handler.endElement("", name, name);
+    }
+
+    /**
+     * The log entry of a revision of the dump.
+     */
+    private static final class LogEntry {
+        private final String revision;
+
+        private String author;
+
+        private String date;
+
+        private String message = "";
+
+        // absolute path -> String[] {action, copyfrom path, copyfrom revision}
+        private final Map paths = new LinkedHashMap();
+
+        private LogEntry(final String revision) {
+            this.revision = revision;
+        }
+
+        /**
+         * Records the change of a path. A path deleted then added again by
+         * the same revision was replaced.
+         */
+        private void addPath(final String path, final String action, final String copyfromPath, final String copyfromRevision) {
+            final String[] previous = (String[]) paths.get(path);
+            if (previous == null) {
+                paths.put(path, new String[] { action, copyfromPath, copyfromRevision });
+            } else if ("D".equals(previous[0]) && !"D".equals(action)) {
+                paths.put(path, new String[] { "R", copyfromPath, copyfromRevision });
+            }
+        }
+
+        private void replay(final SvnXmlLogFileHandler handler) throws SAXException {
+            final AttributesImpl entryAttributes = new AttributesImpl();
+            entryAttributes.addAttribute("", "revision", "revision", "CDATA", revision);
+            startElement(handler, "logentry", entryAttributes);
+            if (author != null) {
+                textElement(handler, "author", author);
+            }
+            if (date != null) {
+                textElement(handler, "date", date);
+            }
+            startElement(handler, "paths", null);
+            for (final Iterator iter = paths.entrySet().iterator(); iter.hasNext();) {
+                final Map.Entry entry = (Map.Entry) iter.next();
+                final String[] change = (String[]) entry.getValue();
+                final AttributesImpl pathAttributes = new AttributesImpl();
+                pathAttributes.addAttribute("", "action", "action", "CDATA", change[0]);
+                if (change[1] != null) {
+                    pathAttributes.addAttribute("", "copyfrom-path", "copyfrom-path", "CDATA", change[1]);
+                    pathAttributes.addAttribute("", "copyfrom-rev", "copyfrom-rev", "CDATA", change[2]);
+                }
+                startElement(handler, "path", pathAttributes);
+                final String path = (String) entry.getKey();
+                handler.characters(path.toCharArray(), 0, path.length());
+                endElement(handler, "path");
+            }
+            endElement(handler, "paths");
+            textElement(handler, "msg", message);
+            endElement(handler, "logentry");
+        }
+    }
+
+    /**
+     * Rebuilds the log entries and the texts of the files from the events of
+     * the dump parser, and schedules the line diff of each file changed by a
+     * revision once the revision is complete.
+     */
+    private final class DumpHandler implements ISVNLoadHandler {
+        private final ThreadPoolExecutor poolService;
+
+        private final List logEntries = new ArrayList();
+
+        private IOException error;
+
+        private LogEntry logEntry;
+
+        private long revision;
+
+        // absolute path -> state before the revision, for the files it changed
+        private final Map oldStates = new LinkedHashMap();
+
+        // the node being read, null between nodes.
+        private String nodePath;
+
+        private String nodeAction;
+
+        private boolean nodeIsFile;
+
+        private String copyfromPath;
+
+        private long copyfromRevision;
+
+        // what the text and properties of the node apply to.
+        private NodeState base;
+
+        private String mimeType;
+
+        private NodeState newState;
+
+        private DumpHandler(final ThreadPoolExecutor poolService) {
+            this.poolService = poolService;
+        }
+
+        private List getLogEntries() {
+            return logEntries;
+        }
+
+        private IOException getError() {
+            return error;
+        }
+
+        public void parseUUID(final String uuid) {
+            repositoryFileManager.setRepositoryUuid(uuid);
+        }
+
+        public void openRevision(final Map headers) throws SVNException {
+            revision = Long.parseLong((String) headers.get("Revision-number"));
+            logEntry = new LogEntry(String.valueOf(revision));
+            repositoryFileManager.startRevision(revision);
+        }
+
+        public void setRevisionProperty(final String name, final SVNPropertyValue value) {
+            final String text = SVNPropertyValue.getPropertyAsString(value);
+            if ("svn:author".equals(name)) {
+                logEntry.author = text;
+            } else if ("svn:date".equals(name)) {
+                logEntry.date = text;
+            } else if ("svn:log".equals(name)) {
+                logEntry.message = text != null ? text : "";
+            }
+        }
+
+        public void openNode(final Map headers) throws SVNException {
+            closeNode();
+            nodePath = "/" + headers.get("Node-path");
+            nodeAction = (String) headers.get("Node-action");
+            copyfromPath = (String) headers.get("Node-copyfrom-path");
+            if (copyfromPath != null) {
+                copyfromPath = copyfromPath.startsWith("/") ? copyfromPath : "/" + copyfromPath;
+                copyfromRevision = Long.parseLong((String) headers.get("Node-copyfrom-rev"));
+            }
+
+            final NodeState current = repositoryFileManager.getCurrentState(nodePath);
+            if (copyfromPath != null) {
+                base = repositoryFileManager.getState(copyfromPath, copyfromRevision);
+            } else if ("change".equals(nodeAction)) {
+                base = current;
+            } else {
+                base = null;
+            }
+            final String kind = (String) headers.get("Node-kind");
+            nodeIsFile = kind != null ? "file".equals(kind) : base != null && base.isFile();
+            mimeType = base != null && base.isFile() ? base.getMimeType() : null;
+            newState = null;
+
+            // the state the line diff of the revision starts from.
+            final String relativePath = repositoryFileManager.absoluteToRelativePath(nodePath);
+            if (relativePath != null && !".".equals(relativePath) && !oldStates.containsKey(nodePath)) {
+                if ("add".equals(nodeAction)) {
+                    oldStates.put(nodePath, base);
+                } else {
+                    oldStates.put(nodePath, current);
+                }
+            }
+
+            final String action = "add".equals(nodeAction) ? "A" : "delete".equals(nodeAction) ? "D" : "replace".equals(nodeAction) ? "R" : "M";
+            logEntry.addPath(nodePath, action, copyfromPath, copyfromPath != null ? String.valueOf(copyfromRevision) : null);
+        }
+
+        public void removeNodeProperties() {
+            mimeType = null;
+        }
+
+        public void setNodeProperty(final String name, final SVNPropertyValue value) {
+            if (MIME_TYPE.equals(name)) {
+                mimeType = SVNPropertyValue.getPropertyAsString(value);
+            }
+        }
+
+        public void deleteNodeProperty(final String name) {
+            if (MIME_TYPE.equals(name)) {
+                mimeType = null;
+            }
+        }
+
+        public void applyTextDelta() {
+        }
+
+        public void setFullText() {
+        }
+
+        public void parseTextBlock(final InputStream dumpStream, final long length, final boolean isDelta) throws SVNException {
+            if (length > Integer.MAX_VALUE) {
+                fail(new IOException(nodePath + " in r" + revision + " is too large"));
+                return;
+            }
+            final byte[] text = new byte[(int) length];
+            try {
+                int read = 0;
+                while (read < text.length) {
+                    final int count = dumpStream.read(text, read, text.length - read);
+                    if (count < 0) {
+                        throw new IOException("Unexpected end of dump in " + nodePath + ", r" + revision);
+                    }
+                    read += count;
+                }
+                if (!isDelta) {
+                    newState = repositoryFileManager.createFile(revision, text, mimeType);
+                } else if (base == null || !base.isFile()) {
+                    newState = repositoryFileManager.createFile(revision, applyDelta(new byte[0], text), mimeType);
+                } else if (base.isTextKnown()) {
+                    newState = repositoryFileManager.createFile(revision, applyDelta(repositoryFileManager.getText(base), text), mimeType);
+                } else {
+                    newState = NodeState.unknownFile(revision, mimeType);
+                }
+            } catch (final IOException e) {
+                fail(e);
+            }
+        }
+
+        private byte[] applyDelta(final byte[] baseText, final byte[] delta) throws SVNException {
+            final ByteArrayOutputStream target = new ByteArrayOutputStream(baseText.length + delta.length);
+            final SVNDeltaProcessor processor = new SVNDeltaProcessor();
+            processor.applyTextDelta(new ByteArrayInputStream(baseText), target, false);
+            final ISVNDeltaConsumer consumer = new ISVNDeltaConsumer() {
+                public void applyTextDelta(final String path, final String baseChecksum) {
+                }
+
+                public OutputStream textDeltaChunk(final String path, final SVNDiffWindow diffWindow) throws SVNException {
+                    return processor.textDeltaChunk(diffWindow);
+                }
+
+                public void textDeltaEnd(final String path) {
+                }
+            };
+            final SVNDeltaReader reader = new SVNDeltaReader();
+            reader.nextWindow(delta, 0, delta.length, nodePath, consumer);
+            // applies the last window, or the empty one of an empty text.
+            reader.reset(nodePath, consumer);
+            processor.textDeltaEnd();
+            return target.toByteArray();
+        }
+
+        public void closeNode() {
+            if (nodePath == null) {
+                return;
+            }
+            if ("delete".equals(nodeAction)) {
+                repositoryFileManager.setState(nodePath, NodeState.deleted(revision));
+            } else if (nodeIsFile) {
+                if (newState == null) {
+                    // same text as before, or as the source of the copy.
+                    newState = base != null && base.isFile() ? base.withText(revision, mimeType) : NodeState.unknownFile(revision, mimeType);
+                }
+                repositoryFileManager.setState(nodePath, newState);
+            } else if (!"change".equals(nodeAction)) {
+                repositoryFileManager.setState(nodePath, NodeState.directory(revision, copyfromPath, copyfromRevision));
+            }
+            nodePath = null;
+            base = null;
+            newState = null;
+        }
+
+        public void closeRevision() {
+            closeNode();
+            if (logEntry == null) {
+                return;
+            }
+            repositoryFileManager.endRevision(revision);
+            if (!logEntry.paths.isEmpty()) {
+                logEntries.add(logEntry);
+            }
+            final String revisionNumber = logEntry.revision;
+            for (final Iterator iter = oldStates.entrySet().iterator(); iter.hasNext();) {
+                final Map.Entry entry = (Map.Entry) iter.next();
+                final String path = (String) entry.getKey();
+                final NodeState newFile = repositoryFileManager.getCurrentState(path);
+                if (newFile != null && newFile.isFile()) {
+                    final NodeState oldState = (NodeState) entry.getValue();
+                    final NodeState oldFile = oldState != null && oldState.isFile() ? oldState : null;
+                    poolService.execute(new LineDiffTask(revisionNumber, repositoryFileManager.absoluteToRelativePath(path), oldFile, newFile));
+                }
+            }
+            oldStates.clear();
+            logEntry = null;
+        }
+
+        private void fail(final IOException e) {
+            if (error == null) {
+                error = e;
+            }
+        }
+    }
+
+    /**
+     * Counts the lines added and removed in a file by a revision.
+     */
+    private final class LineDiffTask implements Runnable {
+        private final String revision;
+
+        private final String fileName;
+
+        private final NodeState oldFile;
+
+        private final NodeState newFile;
+
+        private LineDiffTask(final String revision, final String fileName, final NodeState oldFile, final NodeState newFile) {
+            this.revision = revision;
+            this.fileName = fileName;
+            this.oldFile = oldFile;
+            this.newFile = newFile;
+        }
+
+        public void run() {
+            final Object[] result = new Object[SvnDiffUtils.RESULT_SIZE];
+            result[0] = fileName;
+            result[2] = Boolean.FALSE;
+            if (newFile.isBinary() || (oldFile != null && oldFile.isBinary())) {
+                result[1] = new int[] { 0, 0 };
+                result[2] = Boolean.TRUE;
+            } else if (newFile.hasSameText(oldFile)) {
+                result[1] = new int[] { 0, 0 };
+            } else if (!newFile.isTextKnown() || (oldFile != null && !oldFile.isTextKnown())) {
+                // the file was changed before the start of an incremental dump.
+                return;
+            } else {
+                try {
+                    final byte[] oldText = oldFile != null ? repositoryFileManager.getText(oldFile) : new byte[0];
+                    result[1] = LineDiff.countChanges(oldText, repositoryFileManager.getText(newFile));
+                } catch (final IOException e) {
+                    SvnConfigurationOptions.getTaskLogger().error("Unable to count the lines of " + fileName + " in r" + revision + ": " + e);
+                    return;
+                }
+            }
+            repositoryFileManager.addRevisionDiff(revision, result);
+        }
+    }
+}
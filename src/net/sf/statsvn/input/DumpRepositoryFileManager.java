@@ -0,0 +1,474 @@
+package net.sf.statsvn.input;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+
+import net.sf.statcvs.input.NoLineCountException;
+import net.sf.statsvn.util.BinaryDiffException;
+import net.sf.statsvn.util.LineDiff;
+import net.sf.statsvn.util.SvnDiffUtils;
+
+import edu.emory.mathcs.backport.java.util.Collections;
+import edu.emory.mathcs.backport.java.util.TreeMap;
+import edu.emory.mathcs.backport.java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * Answers the questions StatSVN asks about a repository from the content of a
+ * dump stream instead of a working copy, <tt>svn info</tt> and
+ * <tt>svn diff</tt>. It is filled by {@link DumpFileParser} while the dump is
+ * read: the state of each path is recorded every time a node of the dump
+ * changes it, and the texts of the files are kept in a {@link DumpTextStore}.
+ * The line counts of each revision are computed from these texts.
+ * </p>
+ *
+ * <p>
+ * The state of a path at a given revision is the most recent state recorded
+ * for the path itself or for one of its parent folders. When it is a parent
+ * folder that was copied, the state is looked up at the source of the copy, so
+ * that the files of copied folders need not be recorded one by one. The
+ * &quot;working copy&quot; is the youngest revision of the dump.
+ * </p>
+ */
+public class DumpRepositoryFileManager extends RepositoryFileManager {
+    private final String moduleName;
+
+    private String repositoryUuid;
+
+    private long youngestRevision = 0;
+
+    // orders the recorded states; 0 means before the first one.
+    private int sequence = 0;
+
+    // absolute path -> List of NodeState, in dump order
+    private final Map history = new HashMap();
+
+    // Long revision -> Integer last sequence number of the revision
+    private final TreeMap revisionSequences = new TreeMap();
+
+    // directories inferred by {@link SvnLogfileParser#verifyImplicitActions()}
+    private final Set directories = Collections.newSetFromMap(new ConcurrentHashMap());
+
+    // revision number -> Vector of diff results
+    private final Map revisionDiffs = new HashMap();
+
+    private DumpTextStore textStore;
+
+    /**
+     * Creates a manager for a folder of the repository.
+     *
+     * @param modulePath
+     *            the absolute path of the folder in the repository, for
+     *            example /trunk, or / for the whole repository.
+     */
+    public DumpRepositoryFileManager(final String modulePath) {
+        super(".");
+        String module = modulePath.startsWith("/") ? modulePath : "/" + modulePath;
+        while (module.endsWith("/")) {
+            module = module.substring(0, module.length() - 1);
+        }
+        this.moduleName = module;
+    }
+
+    /**
+     * The state of a path, as recorded by a node of the dump.
+     */
+    static final class NodeState {
+        private static final int FILE = 0;
+
+        private static final int DIRECTORY = 1;
+
+        private static final int DELETED = 2;
+
+        private final int kind;
+
+        private final long revision;
+
+        // -1 if the text is not known, as for files changed by the first
+        // revision of an incremental dump.
+        private final long textPosition;
+
+        private final int textLength;
+
+        private final String mimeType;
+
+        private final String copyfromPath;
+
+        private final long copyfromRevision;
+
+        private int sequence;
+
+        private NodeState(final int kind, final long revision, final long textPosition, final int textLength, final String mimeType,
+                final String copyfromPath, final long copyfromRevision) {
+            this.kind = kind;
+            this.revision = revision;
+            this.textPosition = textPosition;
+            this.textLength = textLength;
+            this.mimeType = mimeType;
+            this.copyfromPath = copyfromPath;
+            this.copyfromRevision = copyfromRevision;
+        }
+
+        /**
+         * @return the state of a file with the same text as this one.
+         */
+        NodeState withText(final long newRevision, final String newMimeType) {
+            return new NodeState(FILE, newRevision, textPosition, textLength, newMimeType, null, -1);
+        }
+
+        static NodeState unknownFile(final long revision, final String mimeType) {
+            return new NodeState(FILE, revision, -1, 0, mimeType, null, -1);
+        }
+
+        static NodeState directory(final long revision, final String copyfromPath, final long copyfromRevision) {
+            return new NodeState(DIRECTORY, revision, -1, 0, null, copyfromPath, copyfromRevision);
+        }
+
+        static NodeState deleted(final long revision) {
+            return new NodeState(DELETED, revision, -1, 0, null, null, -1);
+        }
+
+        boolean isFile() {
+            return kind == FILE;
+        }
+
+        boolean isDirectory() {
+            return kind == DIRECTORY;
+        }
+
+        boolean isTextKnown() {
+            return textPosition >= 0;
+        }
+
+        boolean hasSameText(final NodeState other) {
+            return other != null && isTextKnown() && textPosition == other.textPosition && textLength == other.textLength;
+        }
+
+        String getMimeType() {
+            return mimeType;
+        }
+
+        /**
+         * Same rule as svn: a file is binary if its mime type is set and is
+         * not a text type.
+         */
+        boolean isBinary() {
+            return mimeType != null && !mimeType.startsWith("text/") && !mimeType.equals("image/x-xbitmap") && !mimeType.equals("image/x-xpixmap");
+        }
+    }
+
+    /**
+     * Records the uuid of the repository, found at the start of the dump.
+     *
+     * @param uuid
+     *            the uuid
+     */
+    void setRepositoryUuid(final String uuid) {
+        this.repositoryUuid = uuid;
+    }
+
+    /**
+     * Starts a revision of the dump.
+     *
+     * @param revision
+     *            the revision number
+     */
+    void startRevision(final long revision) {
+        youngestRevision = Math.max(youngestRevision, revision);
+    }
+
+    /**
+     * Ends a revision of the dump, so that its states can be looked up by
+     * {@link #getState(String, long)}.
+     *
+     * @param revision
+     *            the revision number
+     */
+    void endRevision(final long revision) {
+        revisionSequences.put(Long.valueOf(revision), Integer.valueOf(sequence));
+    }
+
+    /**
+     * Records the new state of a path.
+     *
+     * @param path
+     *            the absolute path
+     * @param state
+     *            its state
+     */
+    void setState(final String path, final NodeState state) {
+        state.sequence = ++sequence;
+        List states = (List) history.get(path);
+        if (states == null) {
+            states = new ArrayList(1);
+            history.put(path, states);
+        }
+        states.add(state);
+    }
+
+    /**
+     * @param path
+     *            the absolute path
+     * @return the state of the path so far, or null if it does not exist.
+     */
+    NodeState getCurrentState(final String path) {
+        return resolve(path, sequence);
+    }
+
+    /**
+     * @param path
+     *            the absolute path
+     * @param revision
+     *            the revision
+     * @return the state of the path at the end of the revision, or null if
+     *         it did not exist.
+     */
+    NodeState getState(final String path, final long revision) {
+        final Map.Entry entry = revisionSequences.floorEntry(Long.valueOf(revision));
+        return entry == null ? null : resolve(path, ((Integer) entry.getValue()).intValue());
+    }
+
+    /**
+     * Stores the text of a new version of a file.
+     *
+     * @return the state of the file.
+     * @throws IOException
+     *             if the text cannot be stored.
+     */
+    synchronized NodeState createFile(final long revision, final byte[] text, final String mimeType) throws IOException {
+        if (text.length == 0) {
+            return new NodeState(NodeState.FILE, revision, 0, 0, mimeType, null, -1);
+        }
+        if (textStore == null) {
+            textStore = new DumpTextStore();
+        }
+        return new NodeState(NodeState.FILE, revision, textStore.append(text), text.length, mimeType, null, -1);
+    }
+
+    /**
+     * @param state
+     *            the state of a file whose text is known.
+     * @return the text of the file
+     * @throws IOException
+     *             if the text cannot be read.
+     */
+    byte[] getText(final NodeState state) throws IOException {
+        if (state.textLength == 0) {
+            return new byte[0];
+        }
+        return textStore.read(state.textPosition, state.textLength);
+    }
+
+    /**
+     * Records the line counts of a file in a revision.
+     *
+     * @param revision
+     *            the revision number
+     * @param result
+     *            the result, as given by {@link #getRevisionDiff(String)}
+     */
+    void addRevisionDiff(final String revision, final Object[] result) {
+        synchronized (revisionDiffs) {
+            Vector results = (Vector) revisionDiffs.get(revision);
+            if (results == null) {
+                results = new Vector();
+                revisionDiffs.put(revision, results);
+            }
+            results.add(result);
+        }
+    }
+
+    /**
+     * Finds the most recent state of the path, or of one of its parent
+     * folders, recorded before the given sequence number.
+     */
+    private NodeState resolve(final String path, final int maxSequence) {
+        NodeState latest = null;
+        String latestPath = null;
+        for (String parent = path; parent.length() > 0; parent = parent.substring(0, parent.lastIndexOf('/'))) {
+            final NodeState state = findLatest((List) history.get(parent), maxSequence);
+            if (state != null && (latest == null || state.sequence > latest.sequence)) {
+                latest = state;
+                latestPath = parent;
+            }
+        }
+        if (latest == null || latest.kind == NodeState.DELETED) {
+            return null;
+        }
+        if (latestPath.length() == path.length()) {
+            return latest;
+        }
+        if (latest.copyfromPath == null) {
+            // a folder added or replaced after the path was.
+            return null;
+        }
+        final NodeState source = getState(latest.copyfromPath + path.substring(latestPath.length()), latest.copyfromRevision);
+        if (source == null || source.isDirectory()) {
+            return source;
+        }
+        return source.withText(latest.revision, source.mimeType);
+    }
+
+    private static NodeState findLatest(final List states, final int maxSequence) {
+        if (states == null) {
+            return null;
+        }
+        int low = 0;
+        int high = states.size() - 1;
+        NodeState found = null;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final NodeState state = (NodeState) states.get(middle);
+            if (state.sequence <= maxSequence) {
+                found = state;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return found;
+    }
+
+    private NodeState getHeadState(final String relativePath) {
+        return resolve(relativeToAbsolutePath(relativePath), Integer.MAX_VALUE);
+    }
+
+    public void loadInfo() {
+        // everything is known from the dump.
+    }
+
+    public String getModuleName() {
+        return moduleName;
+    }
+
+    public String getRepositoryUuid() {
+        return repositoryUuid;
+    }
+
+    public String getRootRevisionNumber() {
+        return String.valueOf(youngestRevision);
+    }
+
+    public String absoluteToRelativePath(final String stringData) {
+        String absolute = stringData;
+        if (absolute.endsWith("/")) {
+            absolute = absolute.substring(0, absolute.length() - 1);
+        }
+        if (absolute.equals(moduleName)) {
+            return ".";
+        } else if (!absolute.startsWith(moduleName + "/")) {
+            return null;
+        } else {
+            return absolute.substring(moduleName.length() + 1);
+        }
+    }
+
+    public String relativeToAbsolutePath(final String relative) {
+        if (".".equals(relative)) {
+            return moduleName;
+        }
+        return moduleName + "/" + relative;
+    }
+
+    public void addDirectory(final String relativePath) {
+        directories.add(relativePath);
+    }
+
+    public boolean existsInWorkingCopy(final String relativePath) {
+        return getHeadState(relativePath) != null;
+    }
+
+    public boolean isDirectory(final String relativePath) {
+        if (directories.contains(relativePath)) {
+            return true;
+        }
+        final NodeState state = getHeadState(relativePath);
+        if (state != null) {
+            return state.isDirectory();
+        }
+        // deleted: what it was when it was last seen.
+        final List states = (List) history.get(relativeToAbsolutePath(relativePath));
+        for (int i = states == null ? -1 : states.size() - 1; i >= 0; i--) {
+            final NodeState previous = (NodeState) states.get(i);
+            if (previous.kind != NodeState.DELETED) {
+                return previous.isDirectory();
+            }
+        }
+        return false;
+    }
+
+    public boolean isBinary(final String relativePath) {
+        final NodeState state = getHeadState(relativePath);
+        return state != null && state.isFile() && state.isBinary();
+    }
+
+    public String getRevision(final String filename) throws IOException {
+        final NodeState state = getHeadState(filename);
+        if (state != null) {
+            return String.valueOf(state.revision);
+        } else if (isDirectory(filename)) {
+            return null;
+        } else {
+            throw new IOException("File " + filename + " has no revision");
+        }
+    }
+
+    public int getLinesOfCode(final String filename) throws NoLineCountException {
+        final NodeState state = getHeadState(filename);
+        if (state == null || !state.isFile() || !state.isTextKnown()) {
+            throw new NoLineCountException("could not get line count for '" + filename + "': not in the dump");
+        }
+        try {
+            return LineDiff.countLines(getText(state));
+        } catch (final IOException e) {
+            throw new NoLineCountException("could not get line count for '" + filename + "': " + e);
+        }
+    }
+
+    /**
+     * Returns the line counts computed from the dump; svn diff is never
+     * called.
+     */
+    public Vector getRevisionDiff(final String newRevNr) {
+        synchronized (revisionDiffs) {
+            final Vector results = (Vector) revisionDiffs.remove(newRevNr);
+            return results != null ? results : new Vector();
+        }
+    }
+
+    /**
+     * No diff processor is used with a dump.
+     */
+    public void closeDiffs() {
+    }
+
+    /**
+     * The dump only has the line counts of whole revisions; they are not
+     * handed out by subtree, so that the diff of the whole revision still has
+     * all of them.
+     */
+    public Vector getRevisionDiff(final String newRevNr, final String url) throws IOException {
+        throw new IOException("The dump has no line counts by subtree: " + url + " on r" + newRevNr);
+    }
+
+    public int[] getLineDiff(final String oldRevNr, final String newRevNr, final String filename) throws IOException, BinaryDiffException {
+        synchronized (revisionDiffs) {
+            final Vector results = (Vector) revisionDiffs.get(newRevNr);
+            for (int i = 0; results != null && i < results.size(); i++) {
+                final Object[] result = (Object[]) results.get(i);
+                if (result.length == SvnDiffUtils.RESULT_SIZE && filename.equals(result[0])) {
+                    if (((Boolean) result[2]).booleanValue()) {
+                        throw new BinaryDiffException();
+                    }
+                    return (int[]) result[1];
+                }
+            }
+        }
+        throw new IOException("The dump has no line counts for " + filename + " in r" + newRevNr);
+    }
+}
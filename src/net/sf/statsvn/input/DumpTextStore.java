@@ -0,0 +1,86 @@
+package net.sf.statsvn.input;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>
+ * Keeps every version of every file of a dump stream out of the heap, in a
+ * temporary file. Versions are appended as they are read from the dump, and
+ * read back by position when they are the base of a delta or the old side of
+ * a line diff.
+ * </p>
+ *
+ * <p>
+ * Reads use positional channel operations, so that the line diffs of several
+ * threads can read while the dump is still being appended to. The file is
+ * deleted on exit, as the texts are needed up to the line counts of the
+ * report.
+ * </p>
+ */
+class DumpTextStore {
+    private final File file;
+
+    private final RandomAccessFile randomAccessFile;
+
+    private final FileChannel channel;
+
+    private long size = 0;
+
+    /**
+     * Creates the store in a new temporary file, deleted on exit.
+     *
+     * @throws IOException
+     *             if the file cannot be created.
+     */
+    DumpTextStore() throws IOException {
+        file = File.createTempFile("statsvn", ".dumptext");
+        file.deleteOnExit();
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        channel = randomAccessFile.getChannel();
+    }
+
+    /**
+     * Appends a version of a file. Only called by the thread reading the dump.
+     *
+     * @param text
+     *            the content of the file
+     * @return the position of the text in the store.
+     * @throws IOException
+     *             if the text cannot be written.
+     */
+    long append(final byte[] text) throws IOException {
+        final long position = size;
+        final ByteBuffer buffer = ByteBuffer.wrap(text);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+        size += text.length;
+        return position;
+    }
+
+    /**
+     * Reads a version of a file back.
+     *
+     * @param position
+     *            the position returned by {@link #append(byte[])}
+     * @param length
+     *            the length of the text
+     * @return the text
+     * @throws IOException
+     *             if the text cannot be read.
+     */
+    byte[] read(final long position, final int length) throws IOException {
+        final byte[] text = new byte[length];
+        final ByteBuffer buffer = ByteBuffer.wrap(text);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of " + file);
+            }
+        }
+        return text;
+    }
+}
@@ -523,7 +523,7 @@ public class FileBuilder {
 	 * @param linesRemoved
 	 *            the lines that were removed
 	 */
-	public void updateRevision(final String revisionNumber, final int linesAdded, final int linesRemoved) {
+	public synchronized void updateRevision(final String revisionNumber, final int linesAdded, final int linesRemoved) {
 		final RevisionData data = findRevision(revisionNumber);
 		if (data != null) {
 			data.setLines(linesAdded, linesRemoved);
@@ -0,0 +1,252 @@
+package net.sf.statsvn.input;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import net.sf.statsvn.output.SvnConfigurationOptions;
+import net.sf.statsvn.util.BinaryDiffException;
+import net.sf.statsvn.util.ProcessUtils;
+
+import edu.emory.mathcs.backport.java.util.concurrent.Callable;
+import edu.emory.mathcs.backport.java.util.concurrent.ExecutionException;
+import edu.emory.mathcs.backport.java.util.concurrent.ExecutorCompletionService;
+import edu.emory.mathcs.backport.java.util.concurrent.ExecutorService;
+import edu.emory.mathcs.backport.java.util.concurrent.Executors;
+import edu.emory.mathcs.backport.java.util.concurrent.Future;
+import edu.emory.mathcs.backport.java.util.concurrent.ThreadFactory;
+import edu.emory.mathcs.backport.java.util.concurrent.TimeUnit;
+import edu.emory.mathcs.backport.java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Runs svn diff calls with a deadline taken from the latencies of the calls
+ * made so far. A call still running at twice the 99th percentile is issued a
+ * second time; the first to succeed wins and the svn process of the other is
+ * killed. One slow call on an unlucky server node then no longer holds up the
+ * end of the run.
+ * </p>
+ *
+ * <p>
+ * Until enough calls are measured, they are made without a deadline. The
+ * deadline never goes below a second, so that fast diffs are not doubled for
+ * nothing.
+ * </p>
+ */
+class HedgedCalls {
+    // the latest latencies the percentile is taken from.
+    private static final int WINDOW = 1000;
+
+    private static final int MIN_SAMPLES = 20;
+
+    private static final double PERCENTILE = 0.99;
+
+    private static final double DEADLINE_FACTOR = 2.0;
+
+    private static final long MIN_DEADLINE_MS = 1000;
+
+    private static final ThreadFactory DAEMON_THREADS = new ThreadFactory() {
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "svn diff hedge");
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(DAEMON_THREADS);
+
+    private final long[] latencies = new long[WINDOW];
+
+    private int samples = 0;
+
+    private long deadline = 0;
+
+    private final AtomicInteger hedged = new AtomicInteger();
+
+    private final AtomicInteger hedgesWon = new AtomicInteger();
+
+    /**
+     * Makes a call, and a second one if the first is too slow.
+     *
+     * @param svnCall
+     *            the call, which may be made twice at the same time
+     * @param description
+     *            what is called, for the log
+     * @return the result of the call that succeeded first.
+     * @throws IOException
+     *             if the calls failed.
+     * @throws BinaryDiffException
+     *             if the calls failed on a binary file.
+     */
+    Object call(final Callable svnCall, final String description) throws IOException, BinaryDiffException {
+        final long currentDeadline = getDeadline();
+        if (currentDeadline == 0) {
+            final long start = System.currentTimeMillis();
+            final Object result = unwrap(new Attempt(svnCall), description);
+            addLatency(System.currentTimeMillis() - start);
+            return result;
+        }
+
+        final ExecutorCompletionService done = new ExecutorCompletionService(executor);
+        final Attempt first = new Attempt(svnCall);
+        final Future firstFuture = done.submit(first);
+        Attempt second = null;
+        Future secondFuture = null;
+        try {
+            Future winner = done.poll(currentDeadline, TimeUnit.MILLISECONDS);
+            if (winner == null) {
+                hedged.incrementAndGet();
+                SvnConfigurationOptions.getTaskLogger().log("svn diff of " + description + " still running after " + currentDeadline + " ms, hedging.");
+                second = new Attempt(svnCall);
+                secondFuture = done.submit(second);
+                winner = done.take();
+                if (isFailed(winner)) {
+                    // the other one may still succeed.
+                    winner = done.take();
+                }
+            }
+            final Attempt winning = winner == firstFuture ? first : second;
+            if (winning == second) {
+                hedgesWon.incrementAndGet();
+            }
+            if (!isFailed(winner)) {
+                addLatency(winning.getLatency());
+            }
+            return unwrap(winner, description);
+        } catch (final InterruptedException e) {
+            throw new IOException("Interrupted while waiting for the svn diff of " + description);
+        } finally {
+            cancel(first, firstFuture);
+            if (second != null) {
+                cancel(second, secondFuture);
+            }
+        }
+    }
+
+    /**
+     * Stops the threads, once all calls are made.
+     */
+    void shutdown() {
+        executor.shutdownNow();
+        if (hedged.get() > 0) {
+            SvnConfigurationOptions.getTaskLogger().info("Hedged " + hedged.get() + " slow svn diff calls, " + hedgesWon.get() + " of which won.");
+        }
+    }
+
+    private void cancel(final Attempt attempt, final Future future) {
+        if (!future.isDone()) {
+            future.cancel(false);
+            final long elapsed = attempt.kill();
+            // the straggler took at least this long: leaving it out would
+            // only keep the faster calls, and lower the deadline every time.
+            if (elapsed >= 0) {
+                addLatency(elapsed);
+            }
+        }
+    }
+
+    private static boolean isFailed(final Future future) throws InterruptedException {
+        try {
+            future.get();
+            return false;
+        } catch (final ExecutionException e) {
+            return true;
+        }
+    }
+
+    private static Object unwrap(final Object attempt, final String description) throws IOException, BinaryDiffException {
+        try {
+            if (attempt instanceof Attempt) {
+                return ((Attempt) attempt).call();
+            }
+            return ((Future) attempt).get();
+        } catch (final ExecutionException e) {
+            return rethrow(e.getCause(), description);
+        } catch (final InterruptedException e) {
+            throw new IOException("Interrupted while waiting for the svn diff of " + description);
+        } catch (final Exception e) {
+            return rethrow(e, description);
+        }
+    }
+
+    private static Object rethrow(final Throwable cause, final String description) throws IOException, BinaryDiffException {
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        }
+        if (cause instanceof BinaryDiffException) {
+            throw (BinaryDiffException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        throw new IOException("svn diff of " + description + " failed: " + cause);
+    }
+
+    private synchronized long getDeadline() {
+        return deadline;
+    }
+
+    private synchronized void addLatency(final long latency) {
+        latencies[samples % WINDOW] = latency;
+        samples++;
+        // the percentile is taken again every few calls, not on each one.
+        if (samples >= MIN_SAMPLES && samples % 10 == 0) {
+            final long[] sorted = new long[Math.min(samples, WINDOW)];
+            System.arraycopy(latencies, 0, sorted, 0, sorted.length);
+            Arrays.sort(sorted);
+            final long percentile = sorted[(int) Math.min(sorted.length - 1, Math.round(PERCENTILE * (sorted.length - 1)))];
+            deadline = Math.max(MIN_DEADLINE_MS, (long) (DEADLINE_FACTOR * percentile));
+        }
+    }
+
+    /**
+     * One of the calls, which knows the thread it runs in so that its svn
+     * process can be killed.
+     */
+    private static final class Attempt implements Callable {
+        private final Callable svnCall;
+
+        private Thread thread;
+
+        private long start;
+
+        private long latency;
+
+        private Attempt(final Callable svnCall) {
+            this.svnCall = svnCall;
+        }
+
+        public Object call() throws Exception {
+            synchronized (this) {
+                thread = Thread.currentThread();
+                start = System.currentTimeMillis();
+            }
+            try {
+                return svnCall.call();
+            } finally {
+                synchronized (this) {
+                    thread = null;
+                    latency = System.currentTimeMillis() - start;
+                }
+            }
+        }
+
+        /**
+         * Kills the svn process of the call, if it is still running. The
+         * thread cannot move on to another call meanwhile.
+         *
+         * @return how long the call ran until killed, or -1 if it was not
+         *         running.
+         */
+        synchronized long kill() {
+            if (thread == null) {
+                return -1;
+            }
+            ProcessUtils.killProcessOf(thread);
+            return System.currentTimeMillis() - start;
+        }
+
+        synchronized long getLatency() {
+            return latency;
+        }
+    }
+}
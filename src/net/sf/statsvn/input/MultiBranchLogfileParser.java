@@ -0,0 +1,168 @@
+package net.sf.statsvn.input;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import net.sf.statcvs.input.LogSyntaxException;
+import net.sf.statsvn.output.SvnConfigurationOptions;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * <p>
+ * Parses a Subversion logfile taken at the root of the repository (or at any
+ * common parent of several branches) once, and feeds several {@link Builder}s,
+ * one per branch. Each branch has its own working copy, and therefore its own
+ * module prefix and working copy information.
+ * </p>
+ *
+ * <p>
+ * Post-parse processing is then done branch after branch. All branches share
+ * the line count cache of the repository, and per-revision diffs are taken at
+ * the common url of the branches, so that each revision is fetched from the
+ * server at most once.
+ * </p>
+ */
+public class MultiBranchLogfileParser {
+    private final InputStream logFile;
+
+    private final RepositoryFileManager[] repositoryFileManagers;
+
+    private final SvnLogBuilder[] builders;
+
+    /**
+     * Default Constructor
+     *
+     * @param logFile
+     *            a <tt>Reader</tt> containing the SVN logfile
+     * @param repositoryFileManagers
+     *            the repository file manager of each branch
+     * @param builders
+     *            the builder of each branch
+     */
+    public MultiBranchLogfileParser(final InputStream logFile, final RepositoryFileManager[] repositoryFileManagers, final SvnLogBuilder[] builders) {
+        this.logFile = logFile;
+        this.repositoryFileManagers = repositoryFileManagers;
+        this.builders = builders;
+    }
+
+    /**
+     * Parses the logfile. After <tt>parse()</tt> has finished, the result of
+     * the parsing process can be obtained from the builders.
+     *
+     * @throws LogSyntaxException
+     *             if syntax errors in log
+     * @throws IOException
+     *             if errors while reading from the log Reader
+     */
+    public void parse() throws LogSyntaxException, IOException {
+        long startTime = System.currentTimeMillis();
+        SvnConfigurationOptions.getTaskLogger().log("starting to parse for " + builders.length + " branches...");
+
+        final CommitMessageStore messageStore = SvnLogfileParser.createMessageStore(logFile);
+        final SvnXmlLogFileHandler[] handlers = new SvnXmlLogFileHandler[builders.length];
+        for (int i = 0; i < builders.length; i++) {
+            handlers[i] = new SvnXmlLogFileHandler(builders[i], repositoryFileManagers[i], messageStore);
+        }
+
+        final SAXParserFactory factory = SAXParserFactory.newInstance();
+        try {
+            final SAXParser parser = factory.newSAXParser();
+            parser.parse(logFile, new FanOutHandler(handlers));
+        } catch (final ParserConfigurationException e) {
+            throw new LogSyntaxException("svn log: " + e.getMessage());
+        } catch (final SAXException e) {
+            throw new LogSyntaxException("svn log: " + e.getMessage());
+        }
+        SvnConfigurationOptions.getTaskLogger().log("parsing svn log finished in " + (System.currentTimeMillis() - startTime) + " ms.");
+
+        final String sharedDiffUrl = findSharedUrl();
+        SvnConfigurationOptions.getTaskLogger().info("Per-revision diffs for all branches will be taken at " + sharedDiffUrl);
+
+        // one limiter for all branches: the caps are for the whole run.
+        final DiffRateLimiter rateLimiter = DiffRateLimiter.create();
+        for (int i = 0; i < repositoryFileManagers.length; i++) {
+            repositoryFileManagers[i].setRateLimiter(rateLimiter);
+        }
+
+        // branches are processed one after the other so that each one reads
+        // the cache written by the previous ones.
+        for (int i = 0; i < builders.length; i++) {
+            startTime = System.currentTimeMillis();
+            SvnConfigurationOptions.getTaskLogger().info("Processing branch " + repositoryFileManagers[i].getModuleName());
+            final SvnLogfileParser parser = new SvnLogfileParser(repositoryFileManagers[i], logFile, builders[i]);
+            parser.setSharedDiffUrl(sharedDiffUrl);
+            parser.processParsedLog(factory);
+            SvnConfigurationOptions.getTaskLogger().log(
+                    "processing branch " + repositoryFileManagers[i].getModuleName() + " finished in " + (System.currentTimeMillis() - startTime) + " ms.");
+        }
+    }
+
+    /**
+     * Finds the deepest url that contains the root of every branch.
+     *
+     * @return the common url.
+     * @throws IOException
+     *             if the branches are not from the same repository, or not
+     *             at the same host.
+     */
+    private String findSharedUrl() throws IOException {
+        String shared = repositoryFileManagers[0].getRootUrl();
+        // the url is never cut before the path, after scheme://host.
+        int pathStart = shared.indexOf('/', shared.indexOf("://") + 3);
+        if (pathStart < 0) {
+            pathStart = shared.length();
+        }
+        final String uuid = repositoryFileManagers[0].getRepositoryUuid();
+        for (int i = 1; i < repositoryFileManagers.length; i++) {
+            if (uuid == null || !uuid.equals(repositoryFileManagers[i].getRepositoryUuid())) {
+                throw new IOException("All branches must be working copies of the same repository: " + repositoryFileManagers[i].getRootUrl());
+            }
+            final String url = repositoryFileManagers[i].getRootUrl();
+            while (!url.equals(shared) && !url.startsWith(shared + "/")) {
+                final int slash = shared.lastIndexOf('/');
+                if (slash < pathStart) {
+                    throw new IOException("The branches must be reached through the same url of the repository: " + repositoryFileManagers[0].getRootUrl()
+                            + " and " + url);
+                }
+                shared = shared.substring(0, slash);
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * Forwards the events of a single SAX parse to several handlers.
+     */
+    private static final class FanOutHandler extends DefaultHandler {
+        private final DefaultHandler[] handlers;
+
+        private FanOutHandler(final DefaultHandler[] handlers) {
+            this.handlers = handlers;
+        }
+
+        public void characters(final char[] ch, final int start, final int length) throws SAXException {
+            for (int i = 0; i < handlers.length; i++) {
+                handlers[i].characters(ch, start, length);
+            }
+        }
+
+        public void startElement(final String uri, final String localName, final String qName, final Attributes attributes) throws SAXException {
+            for (int i = 0; i < handlers.length; i++) {
+                handlers[i].startElement(uri, localName, qName, attributes);
+            }
+        }
+
+        public void endElement(final String uri, final String localName, final String qName) throws SAXException {
+            for (int i = 0; i < handlers.length; i++) {
+                handlers[i].endElement(uri, localName, qName);
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package net.sf.statsvn.input;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import edu.emory.mathcs.backport.java.util.concurrent.Callable;
+import edu.emory.mathcs.backport.java.util.concurrent.ExecutionException;
+import edu.emory.mathcs.backport.java.util.concurrent.ExecutorService;
+import edu.emory.mathcs.backport.java.util.concurrent.Executors;
+import edu.emory.mathcs.backport.java.util.concurrent.Future;
+
+/**
+ * <p>
+ * A pass over a collection of independent items, typically the
+ * {@link FileBuilder}s of a {@link Builder}, that is split in partitions
+ * processed in parallel, one thread per available processor.
+ * </p>
+ *
+ * <p>
+ * Each partition accumulates into its own result object, which needs no
+ * synchronization. The results are then merged one after the other in the
+ * calling thread, in partition order. Small collections are processed in the
+ * calling thread.
+ * </p>
+ */
+abstract class PartitionedPass {
+    // below this, the pass is not worth the thread hand-off.
+    private static final int MIN_PARTITION_SIZE = 1000;
+
+    // more partitions than threads, to balance uneven items.
+    private static final int PARTITIONS_PER_THREAD = 4;
+
+    /**
+     * Creates the result object of one partition.
+     *
+     * @return the result object, or null if the pass needs none.
+     */
+    protected Object createPartitionResult() {
+        return null;
+    }
+
+    /**
+     * Processes one item. Called concurrently for items of different
+     * partitions.
+     *
+     * @param item
+     *            the item
+     * @param partitionResult
+     *            the result object of the item's partition
+     */
+    protected abstract void process(Object item, Object partitionResult);
+
+    /**
+     * Merges the result of a partition. Called in the thread that runs the
+     * pass, once per partition.
+     *
+     * @param partitionResult
+     *            the result object of the partition
+     */
+    protected void merge(final Object partitionResult) {
+    }
+
+    /**
+     * Runs the pass.
+     *
+     * @param items
+     *            the items to process. Must not be modified until the pass
+     *            is done.
+     */
+    public void run(final Collection items) {
+        final Object[] all = items.toArray();
+        final int threads = Math.min(Runtime.getRuntime().availableProcessors(), all.length / MIN_PARTITION_SIZE);
+        if (threads <= 1) {
+            merge(processPartition(all, 0, all.length));
+            return;
+        }
+
+        final int partitions = threads * PARTITIONS_PER_THREAD;
+        final ExecutorService poolService = Executors.newFixedThreadPool(threads);
+        try {
+            final List futures = new ArrayList(partitions);
+            for (int i = 0; i < partitions; i++) {
+                final int start = (int) ((long) all.length * i / partitions);
+                final int end = (int) ((long) all.length * (i + 1) / partitions);
+                futures.add(poolService.submit(new Callable() {
+                    public Object call() {
+                        return processPartition(all, start, end);
+                    }
+                }));
+            }
+            for (final Iterator iter = futures.iterator(); iter.hasNext();) {
+                merge(((Future) iter.next()).get());
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while processing files: " + e.getMessage());
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException("Unable to process files: " + e.getCause());
+        } finally {
+            poolService.shutdownNow();
+        }
+    }
+
+    private Object processPartition(final Object[] all, final int start, final int end) {
+        final Object partitionResult = createPartitionResult();
+        for (int i = start; i < end; i++) {
+            process(all[i], partitionResult);
+        }
+        return partitionResult;
+    }
+}
@@ -56,6 +56,8 @@ import net.sf.statsvn.util.ISvnVersionProcessor;
 public class RepositoryFileManager {
 	private final String path;
 
+	private volatile DiffRateLimiter rateLimiter;
+
 	/**
 	 * Creates a new instance with root at <code>pathName</code>.
 	 * 
@@ -66,6 +68,21 @@ public class RepositoryFileManager {
 		path = pathName;
 	}
 
+	/**
+	 * Creates a new instance with root at <code>pathName</code> that queries
+	 * the repository through the given processor. Used to work on several
+	 * working copies at once.
+	 * 
+	 * @param pathName
+	 *            the root of the checked out repository
+	 * @param processor
+	 *            the processor bound to this working copy
+	 */
+	public RepositoryFileManager(final String pathName, final ISvnProcessor processor) {
+		path = pathName;
+		svnProcessor = processor;
+	}
+
 	/**
 	 * Converts an absolute path in the repository to a URL, using the
 	 * repository URL
@@ -150,7 +167,7 @@ public class RepositoryFileManager {
 	 * 
 	 */
 	public int[] getLineDiff(final String oldRevNr, final String newRevNr, final String filename) throws IOException, BinaryDiffException {
-	    
+		throttle();
 		return getDiffProcessor().getLineDiff(oldRevNr, newRevNr, filename);
 	}
 
@@ -166,9 +183,59 @@ public class RepositoryFileManager {
 	*             if the error message is due to trying to diff binary files.
 	*/
 	public Vector getRevisionDiff(final String newRevNr) throws IOException, BinaryDiffException {
+		throttle();
 		return getDiffProcessor().getLineDiff(newRevNr);
 	}
 
+	/**
+	* Returns line count differences for all files under url in a particular
+	* revision.
+	* 
+	* @param newRevNr
+	*            new revision number
+	* @param url
+	*            the url under which changes are looked for
+	* @return A vector of object[3] array of [filename relative to url, int[2](lines added, lines removed), isBinary] is returned.
+	* @throws IOException
+	*             problem parsing the stream
+	* @throws BinaryDiffException
+	*             if the error message is due to trying to diff binary files.
+	*/
+	public Vector getRevisionDiff(final String newRevNr, final String url) throws IOException, BinaryDiffException {
+		throttle();
+		return getDiffProcessor().getLineDiff(newRevNr, url);
+	}
+
+	/**
+	 * Closes what the diff processor keeps open between diffs, once all
+	 * diffs are made.
+	 */
+	public void closeDiffs() {
+		getDiffProcessor().close();
+	}
+
+	/**
+	 * Limits the rate of the svn diff calls made through this class, from
+	 * every thread.
+	 * 
+	 * @param limiter
+	 *            the limiter, null not to limit the rate.
+	 */
+	void setRateLimiter(final DiffRateLimiter limiter) {
+		rateLimiter = limiter;
+	}
+
+	private void throttle() throws IOException {
+		final DiffRateLimiter limiter = rateLimiter;
+		if (limiter != null) {
+			try {
+				limiter.acquire();
+			} catch (final InterruptedException e) {
+				throw new IOException("Interrupted while waiting to call svn diff.");
+			}
+		}
+	}
+
 	/**
 	 * Returns the lines of code for a repository file. (Currently checked out
 	 * version)
@@ -205,6 +272,15 @@ public class RepositoryFileManager {
 		return getInfoProcessor().getModuleName();
 	}
 
+	/**
+	 * Assumes #loadInfo(String) has been called.
+	 * 
+	 * @return the url of the root of the working folder.
+	 */
+	public String getRootUrl() {
+		return getInfoProcessor().getRootUrl();
+	}
+
 	/**
 	 * Assumes #loadInfo(String) has been called.
 	 * 
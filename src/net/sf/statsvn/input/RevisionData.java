@@ -54,10 +54,14 @@ public class RevisionData {
 
 	private String comment = "";
 
+	private CommitMessageStore.Handle commentHandle;
+
 	private String copyfromPath;
 
 	private String copyfromRevision;
 
+	private String textMods;
+
 	public RevisionData() {
 	}
 
@@ -187,6 +191,9 @@ public class RevisionData {
 	 * @return Returns the comment.
 	 */
 	public String getComment() {
+		if (commentHandle != null) {
+			return commentHandle.getText();
+		}
 		return comment;
 	}
 
@@ -196,6 +203,39 @@ public class RevisionData {
 	 */
 	public void setComment(final String comment) {
 		this.comment = comment;
+		this.commentHandle = null;
+	}
+
+	/**
+	 * Sets the comment as a reference into the log file. The text is only read
+	 * when {@link #getComment()} is invoked.
+	 * 
+	 * @param handle
+	 *            The handle to the comment in the log file.
+	 */
+	public void setCommentHandle(final CommitMessageStore.Handle handle) {
+		this.commentHandle = handle;
+		this.comment = "";
+	}
+
+	/**
+	 * @return the handle to the comment in the log file, or null if the
+	 *         comment is held in memory.
+	 */
+	public CommitMessageStore.Handle getCommentHandle() {
+		return commentHandle;
+	}
+
+	/**
+	 * Copies the comment from another revision without reading it from the log
+	 * file.
+	 * 
+	 * @param other
+	 *            the revision holding the comment.
+	 */
+	public void copyCommentFrom(final RevisionData other) {
+		this.comment = other.comment;
+		this.commentHandle = other.commentHandle;
 	}
 
 	/**
@@ -268,7 +308,7 @@ public class RevisionData {
 	 */
 	public RevisionData createCopy() {
 		final RevisionData copy = new RevisionData(revisionNumber, date, stateExp, stateDead, stateAdded, hasNoLines, linesAdded, linesRemoved);
-		copy.setComment(comment);
+		copy.copyCommentFrom(this);
 		copy.setLoginName(loginName);
 		return copy;
 	}
@@ -322,4 +362,17 @@ public class RevisionData {
 		this.copyfromRevision = copyfromRevision;
 	}
 
+	/**
+	 * @return "true" if the content of the file was changed by this revision,
+	 *         "false" if it was not (a copy without changes, for example), or
+	 *         null if the log does not tell (svn before 1.7).
+	 */
+	public String getTextMods() {
+		return textMods;
+	}
+
+	public void setTextMods(final String textMods) {
+		this.textMods = textMods;
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,416 @@
+package net.sf.statsvn.input;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Vector;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import net.sf.statcvs.input.LogSyntaxException;
+import net.sf.statsvn.output.SvnConfigurationOptions;
+import net.sf.statsvn.util.BinaryDiffException;
+import net.sf.statsvn.util.DiffLineCounter;
+
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * <p>
+ * Parses the text output of <tt>svn log -v --diff</tt> (Subversion 1.7 or
+ * later), which holds the diff of each revision after its log entry. The log
+ * and the line counts are obtained in a single pass: each log entry is given
+ * to a {@link SvnXmlLogFileHandler} as if it had been read from the xml log,
+ * and the diff that follows it is counted as it is read, with the same rules
+ * as the output of <tt>svn diff -c</tt>.
+ * </p>
+ *
+ * <p>
+ * Post-parse processing is that of {@link SvnLogfileParser}, except that the
+ * per-revision diffs are taken from the log instead of from svn diff: only
+ * revisions that are not in the log are still queried. The legacy diff
+ * mechanism does not use the diffs of the log. The log must be taken at the
+ * root of the working copy, so that the paths of the diffs are relative to
+ * it.
+ * </p>
+ */
+public class SvnLogDiffParser extends SvnLogfileParser {
+    private static final String INVALID_SVN_LOG_FILE = "Invalid svn log -v --diff file.";
+
+    private static final String CHANGED_PATHS = "Changed paths:";
+
+    private static final String NO_AUTHOR = "(no author)";
+
+    private static final String NO_DATE = "(no date)";
+
+    private static final String FIELD_SEPARATOR = " | ";
+
+    private static final String COPY_FROM = " (from ";
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private static final int SEPARATOR_LENGTH = 72;
+
+    // "yyyy-MM-dd HH:mm:ss +hhmm"
+    private static final int DATE_TIME_LENGTH = 19;
+
+    private static final int TIMEZONE_LENGTH = 5;
+
+    private static final byte[] SEPARATOR_LINE = new byte[SEPARATOR_LENGTH + 1];
+
+    static {
+        for (int i = 0; i < SEPARATOR_LENGTH; i++) {
+            SEPARATOR_LINE[i] = '-';
+        }
+        SEPARATOR_LINE[SEPARATOR_LENGTH] = '\n';
+    }
+
+    private final SvnLogBuilder builder;
+
+    private final InputStream logFile;
+
+    private final RepositoryFileManager repositoryFileManager;
+
+    // revision number -> diff results of the revision
+    private final Map revisionDiffs = new HashMap();
+
+    /**
+     * Default Constructor
+     *
+     * @param repositoryFileManager
+     *            the repository file manager
+     * @param logFile
+     *            a <tt>Reader</tt> containing the output of svn log -v --diff
+     * @param builder
+     *            the builder that will process the log information
+     */
+    public SvnLogDiffParser(final RepositoryFileManager repositoryFileManager, final InputStream logFile, final SvnLogBuilder builder) {
+        super(repositoryFileManager, logFile, builder);
+        this.logFile = logFile;
+        this.builder = builder;
+        this.repositoryFileManager = repositoryFileManager;
+    }
+
+    /**
+     * Parses the log entries and counts the lines of their diffs.
+     *
+     * @return the SaxParserFactory, so that it can be reused.
+     * @throws IOException
+     *             errors while reading file.
+     * @throws LogSyntaxException
+     *             invalid log syntax.
+     */
+    protected SAXParserFactory parseSvnLog() throws IOException, LogSyntaxException {
+        final long startTime = System.currentTimeMillis();
+        SvnConfigurationOptions.getTaskLogger().log("starting to parse svn log with diffs...");
+        if (SvnConfigurationOptions.isLegacyDiff()) {
+            SvnConfigurationOptions.getTaskLogger().info("The diffs of the svn log are not used by the legacy Subversion 1.3 diff mechanism.");
+        }
+
+        final SvnXmlLogFileHandler handler = new SvnXmlLogFileHandler(builder, repositoryFileManager);
+        final LineReader reader = new LineReader(logFile);
+        try {
+            startElement(handler, "log", null);
+            if (reader.next()) {
+                if (!reader.isSeparator()) {
+                    throw new LogSyntaxException(INVALID_SVN_LOG_FILE + " Expected a line of dashes: " + reader.getText());
+                }
+                while (reader.next()) {
+                    parseLogEntry(reader, handler);
+                }
+            }
+            endElement(handler, "log");
+        } catch (final SAXException e) {
+            throw new LogSyntaxException("svn log: " + e.getMessage());
+        }
+
+        SvnConfigurationOptions.getTaskLogger().log(
+                "parsing svn log finished in " + (System.currentTimeMillis() - startTime) + " ms, with the diffs of " + revisionDiffs.size()
+                        + " revisions.");
+        return SAXParserFactory.newInstance();
+    }
+
+    /**
+     * Parses a log entry, from its header line to the separator that ends its
+     * diff, included.
+     *
+     * @param reader
+     *            the reader, on the header line of the entry.
+     * @param handler
+     *            receives the log entry.
+     */
+    private void parseLogEntry(final LineReader reader, final SvnXmlLogFileHandler handler) throws IOException, LogSyntaxException, SAXException {
+        // rN | author | date | K lines
+        final String header = reader.getText();
+        final int first = header.indexOf(FIELD_SEPARATOR);
+        final int last = header.lastIndexOf(FIELD_SEPARATOR);
+        final int beforeLast = last > 0 ? header.lastIndexOf(FIELD_SEPARATOR, last - 1) : -1;
+        if (!reader.isHeader() || beforeLast <= first) {
+            throw new LogSyntaxException(INVALID_SVN_LOG_FILE + " Expected a revision header: " + header);
+        }
+        final String revision = header.substring(1, first);
+        final String author = header.substring(first + FIELD_SEPARATOR.length(), beforeLast);
+        final String date = header.substring(beforeLast + FIELD_SEPARATOR.length(), last);
+        final String lineCount = header.substring(last + FIELD_SEPARATOR.length());
+        int messageLines;
+        try {
+            messageLines = Integer.parseInt(lineCount.substring(0, Math.max(lineCount.indexOf(' '), 0)));
+        } catch (final NumberFormatException e) {
+            throw new LogSyntaxException(INVALID_SVN_LOG_FILE + " Expected a number of lines: " + header);
+        }
+
+        final AttributesImpl entryAttributes = new AttributesImpl();
+        entryAttributes.addAttribute("", "revision", "revision", "CDATA", revision);
+        startElement(handler, "logentry", entryAttributes);
+        if (!NO_AUTHOR.equals(author)) {
+            textElement(handler, "author", author);
+        }
+        if (!NO_DATE.equals(date)) {
+            textElement(handler, "date", toXsdDateTime(date));
+        }
+
+        startElement(handler, "paths", null);
+        if (reader.next() && CHANGED_PATHS.equals(reader.getText())) {
+            while (reader.next() && reader.getText().length() > 0) {
+                parsePath(reader.getText(), handler);
+            }
+        }
+        endElement(handler, "paths");
+
+        final StringBuffer message = new StringBuffer();
+        for (int i = 0; i < messageLines && reader.next(); i++) {
+            if (i > 0) {
+                message.append('\n');
+            }
+            message.append(reader.getText());
+        }
+        textElement(handler, "msg", message.toString());
+        endElement(handler, "logentry");
+
+        final Vector results = new Vector();
+        final DiffLineCounter counter = new DiffLineCounter(results);
+        boolean inDiff = false;
+        while (reader.next()) {
+            if (reader.isSeparator()) {
+                // a removed line of dashes looks like a separator, but is not
+                // followed by a revision header.
+                if (!reader.next()) {
+                    break;
+                }
+                if (reader.isHeader()) {
+                    reader.unread();
+                    break;
+                }
+                reader.unread();
+                counter.count(SEPARATOR_LINE, 0, SEPARATOR_LINE.length);
+                continue;
+            }
+            // the diff is separated from the message by an empty line.
+            inDiff |= reader.getText().length() > 0;
+            if (inDiff) {
+                reader.countLine(counter);
+            }
+        }
+        counter.finish();
+        revisionDiffs.put(revision, results);
+    }
+
+    /**
+     * Parses a changed path: "   A /path (from /other/path:revision)".
+     */
+    private void parsePath(final String line, final SvnXmlLogFileHandler handler) throws LogSyntaxException, SAXException {
+        final String trimmed = line.trim();
+        if (trimmed.length() < 3 || trimmed.charAt(1) != ' ') {
+            throw new LogSyntaxException(INVALID_SVN_LOG_FILE + " Expected a changed path: " + line);
+        }
+        String path = trimmed.substring(2);
+        final AttributesImpl pathAttributes = new AttributesImpl();
+        pathAttributes.addAttribute("", "action", "action", "CDATA", trimmed.substring(0, 1));
+        final int copy = path.lastIndexOf(COPY_FROM);
+        final int colon = path.lastIndexOf(':');
+        if (copy > 0 && path.endsWith(")") && colon > copy) {
+            pathAttributes.addAttribute("", "copyfrom-path", "copyfrom-path", "CDATA", path.substring(copy + COPY_FROM.length(), colon));
+            pathAttributes.addAttribute("", "copyfrom-rev", "copyfrom-rev", "CDATA", path.substring(colon + 1, path.length() - 1));
+            path = path.substring(0, copy);
+        }
+        startElement(handler, "path", pathAttributes);
+        characters(handler, path);
+        endElement(handler, "path");
+    }
+
+    /**
+     * Converts the date of the text log, "2008-03-28 18:46:26 +0100 (Fri, 28
+     * Mar 2008)", to the format of the xml log, "2008-03-28T18:46:26+01:00".
+     */
+    private static String toXsdDateTime(final String date) throws LogSyntaxException {
+        if (date.length() < DATE_TIME_LENGTH + 1 + TIMEZONE_LENGTH) {
+            throw new LogSyntaxException(INVALID_SVN_LOG_FILE + " Invalid date: " + date);
+        }
+        final String timezone = date.substring(DATE_TIME_LENGTH + 1, DATE_TIME_LENGTH + 1 + TIMEZONE_LENGTH);
+        return date.substring(0, 10) + "T" + date.substring(11, DATE_TIME_LENGTH) + timezone.substring(0, 3) + ":" + timezone.substring(3);
+    }
+
+    private static void textElement(final SvnXmlLogFileHandler handler, final String name, final String text) throws SAXException {
+        startElement(handler, name, null);
+        characters(handler, text);
+        endElement(handler, name);
+    }
+
+    private static void startElement(final SvnXmlLogFileHandler handler, final String name, final AttributesImpl attributes) throws SAXException {
+        handler.startElement("", name, name, attributes != null ? attributes : new AttributesImpl());
+    }
+
+    private static void endElement(final SvnXmlLogFileHandler handler, final String name) throws SAXException {
+        handler.endElement("", name, name);
+    }
+
+    private static void characters(final SvnXmlLogFileHandler handler, final String text) throws SAXException {
+        handler.characters(text.toCharArray(), 0, text.length());
+    }
+
+    /**
+     * @return true if the log holds the diff of the revision.
+     */
+    protected boolean hasLocalRevisionDiff(final String revision) {
+        synchronized (revisionDiffs) {
+            return revisionDiffs.containsKey(revision);
+        }
+    }
+
+    /**
+     * Takes the per-revision diff from the log when it holds the revision.
+     */
+    protected Vector getRevisionDiff(final String newRevision) throws IOException, BinaryDiffException {
+        final Vector results;
+        synchronized (revisionDiffs) {
+            results = (Vector) revisionDiffs.remove(newRevision);
+        }
+        if (results != null) {
+            return results;
+        }
+        return super.getRevisionDiff(newRevision);
+    }
+
+    /**
+     * Reads the log line by line, keeping the raw bytes of each line for the
+     * diff line counter. The log is read in blocks, as it holds the content of
+     * every diff. Lines end with LF or CRLF; a lone CR is part of the
+     * line, as it may be in the content of a diff.
+     */
+    private static final class LineReader {
+        private final InputStream in;
+
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+
+        private int position;
+
+        private int limit;
+
+        private byte[] line = new byte[256];
+
+        // with the line terminator.
+        private int rawLength;
+
+        // without the line terminator.
+        private int length;
+
+        private boolean unread;
+
+        private LineReader(final InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * Reads the next line.
+         *
+         * @return false at the end of the log.
+         */
+        private boolean next() throws IOException {
+            if (unread) {
+                unread = false;
+                return true;
+            }
+            rawLength = 0;
+            while (true) {
+                if (position == limit) {
+                    limit = in.read(buffer);
+                    position = 0;
+                    if (limit <= 0) {
+                        limit = 0;
+                        break;
+                    }
+                }
+                int end = position;
+                while (end < limit && buffer[end] != '\n') {
+                    end++;
+                }
+                final boolean endOfLine = end < limit;
+                if (endOfLine) {
+                    end++;
+                }
+                append(position, end - position);
+                position = end;
+                if (endOfLine) {
+                    break;
+                }
+            }
+            length = rawLength;
+            if (length > 0 && line[length - 1] == '\n') {
+                length--;
+                if (length > 0 && line[length - 1] == '\r') {
+                    length--;
+                }
+            }
+            return rawLength > 0;
+        }
+
+        private void append(final int start, final int count) {
+            if (rawLength + count > line.length) {
+                final byte[] larger = new byte[Math.max(line.length * 2, rawLength + count)];
+                System.arraycopy(line, 0, larger, 0, rawLength);
+                line = larger;
+            }
+            System.arraycopy(buffer, start, line, rawLength, count);
+            rawLength += count;
+        }
+
+        /**
+         * The next call to {@link #next()} will return the current line again.
+         */
+        private void unread() {
+            unread = true;
+        }
+
+        private String getText() {
+            return new String(line, 0, length);
+        }
+
+        private boolean isSeparator() {
+            if (length != SEPARATOR_LENGTH) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (line[i] != '-') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return true if the line looks like "r123 | ...".
+         */
+        private boolean isHeader() {
+            int i = 1;
+            while (i < length && line[i] >= '0' && line[i] <= '9') {
+                i++;
+            }
+            return length > 0 && line[0] == 'r' && i > 1 && i + 2 < length && line[i] == ' ' && line[i + 1] == '|' && line[i + 2] == ' ';
+        }
+
+        private void countLine(final DiffLineCounter counter) {
+            counter.count(line, 0, rawLength);
+        }
+    }
+}
@@ -30,12 +30,16 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
 import java.util.Vector;
 
 import javax.xml.parsers.ParserConfigurationException;
@@ -45,15 +49,22 @@ import javax.xml.parsers.SAXParserFactory;
 import net.sf.statcvs.input.LogSyntaxException;
 import net.sf.statsvn.output.SvnConfigurationOptions;
 import net.sf.statsvn.util.BinaryDiffException;
-import net.sf.statsvn.util.FilenameComparator;
 import net.sf.statsvn.util.SvnDiffUtils;
+import net.sf.statsvn.util.VirtualThreadFactory;
 import net.sf.statsvn.util.XMLUtil;
 
 import org.xml.sax.SAXException;
 
+import edu.emory.mathcs.backport.java.util.PriorityQueue;
+import edu.emory.mathcs.backport.java.util.concurrent.Callable;
 import edu.emory.mathcs.backport.java.util.concurrent.ExecutorService;
 import edu.emory.mathcs.backport.java.util.concurrent.Executors;
+import edu.emory.mathcs.backport.java.util.concurrent.Semaphore;
+import edu.emory.mathcs.backport.java.util.concurrent.SynchronousQueue;
+import edu.emory.mathcs.backport.java.util.concurrent.ThreadPoolExecutor;
 import edu.emory.mathcs.backport.java.util.concurrent.TimeUnit;
+import edu.emory.mathcs.backport.java.util.concurrent.atomic.AtomicInteger;
+import edu.emory.mathcs.backport.java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Parses a Subversion logfile and does post-parse processing. A {@link Builder}
@@ -67,8 +78,26 @@ import edu.emory.mathcs.backport.java.util.concurrent.TimeUnit;
 public class SvnLogfileParser {
     private static final int INTERMEDIARY_SAVE_INTERVAL_MS = 120000;
 
+    // tasks waiting for a thread of the pool, per thread.
+    private static final int QUEUED_TASKS_PER_THREAD = 4;
+
+    // a folder with more changed files of its own is not split.
+    private static final int MAX_LOOSE_FILES = 8;
+
     private static final String REPOSITORIES_XML = "repositories.xml";
 
+    // extensions of files that svn add marks application/octet-stream.
+    private static final String[] BINARY_EXTENSIONS = { "7z", "a", "bin", "bmp", "bz2", "class", "dat", "dll", "doc", "docx", "ear", "exe", "gif", "gz",
+            "ico", "jar", "jpeg", "jpg", "lib", "mp3", "mp4", "o", "obj", "odt", "ods", "pdf", "png", "ppt", "pptx", "psd", "so", "swf", "tar", "tgz",
+            "tif", "tiff", "ttf", "war", "wav", "xls", "xlsx", "zip" };
+
+    // outcomes of the svn diff of a file guessed binary.
+    private static final int VERIFIED_BINARY = 0;
+
+    private static final int VERIFIED_TEXT = 1;
+
+    private static final int NOT_VERIFIED = 2;
+
     private final SvnLogBuilder builder;
 
     private final InputStream logFile;
@@ -79,6 +108,29 @@ public class SvnLogfileParser {
 
     private HashSet revsForNewDiff = null;
 
+    // revision number -> Integer, the number of paths it changes in the log.
+    private final Map changedPaths = new HashMap();
+
+    // revision number -> List of the paths it adds or changes, for the
+    // revisions too large for one svn diff.
+    private final Map splitRevisionPaths = new HashMap();
+
+    private String sharedDiffUrl = null;
+
+    private DiffPrefetcher prefetcher = null;
+
+    // limits the concurrent svn calls when each diff has its own thread.
+    private Semaphore svnRequests = null;
+
+    private AdaptiveConcurrencyLimit adaptiveLimit = null;
+
+    // bounds the tasks handed to the pool and not finished yet.
+    private Semaphore queuedTasks = null;
+
+    private HedgedCalls hedgedCalls = null;
+
+    private String sharedDiffPath = null;
+
     /**
      * Default Constructor
      * 
@@ -107,18 +159,13 @@ public class SvnLogfileParser {
      * @throws IOException
      */
     protected void handleLineCounts(final SAXParserFactory factory) throws IOException {
-        long startTime = System.currentTimeMillis();
-        final String xmlFile = SvnConfigurationOptions.getCacheDir() + REPOSITORIES_XML;
-
-        final RepositoriesBuilder repositoriesBuilder = readAndParseXmlFile(factory, xmlFile);
-        cacheFileName = SvnConfigurationOptions.getCacheDir() + repositoriesBuilder.getFileName(repositoryFileManager.getRepositoryUuid());
-        XMLUtil.writeXmlFile(repositoriesBuilder.getDocument(), xmlFile);
-        SvnConfigurationOptions.getTaskLogger().log("parsing repositories finished in " + (System.currentTimeMillis() - startTime) + " ms.");
-        startTime = System.currentTimeMillis();
-
-        readCache(factory);
-        SvnConfigurationOptions.getTaskLogger().log("parsing line counts finished in " + (System.currentTimeMillis() - startTime) + " ms.");
-        startTime = System.currentTimeMillis();
+        if (cacheBuilder == null) {
+            loadCache(factory);
+        } else {
+            // loaded before the log, when the files were not built yet.
+            cacheBuilder.applyLineCounts();
+        }
+        final long startTime = System.currentTimeMillis();
 
         // update the cache xml file with the latest binary status information
         // from the working copy
@@ -126,92 +173,381 @@ public class SvnLogfileParser {
 
         final Collection fileBuilders = builder.getFileBuilders().values();
 
+        if (SvnConfigurationOptions.isCopiesAsMoves()) {
+            resolveCopies(fileBuilders);
+        }
+
+        if (SvnConfigurationOptions.isClassifyBinary()) {
+            classifyBinaryFiles(fileBuilders);
+        }
+
         calculateNumberRequiredCalls(fileBuilders);
 
         // concurrency
         ExecutorService poolService = null;
-        if (SvnConfigurationOptions.getNumberSvnDiffThreads() > 1) {
+        svnRequests = null;
+        adaptiveLimit = null;
+        if (SvnConfigurationOptions.isVirtualThreads()) {
+            poolService = createVirtualThreadPool();
+        } else if (SvnConfigurationOptions.getNumberSvnDiffThreads() > 1) {
             poolService = Executors.newFixedThreadPool(SvnConfigurationOptions.getNumberSvnDiffThreads());
         }
+        if (poolService != null && SvnConfigurationOptions.isAdaptiveConcurrency()) {
+            // the threads are the upper bound; the limit decides how many call svn.
+            svnRequests = null;
+            adaptiveLimit = new AdaptiveConcurrencyLimit(SvnConfigurationOptions.getMinNumberSvnDiffThreads(), SvnConfigurationOptions
+                    .getNumberSvnDiffThreads());
+        }
 
-        boolean isFirstDiff = true;
-        calls = 0;
+        calls.set(0);
         groupStart = System.currentTimeMillis();
         boolean poolUseRequired = false;
+        hedgedCalls = SvnConfigurationOptions.isHedgedDiff() ? new HedgedCalls() : null;
+        queuedTasks = poolService == null ? null : new Semaphore(Math.max(1, SvnConfigurationOptions.getNumberSvnDiffThreads()) * QUEUED_TASKS_PER_THREAD);
 
+        // the tasks are created as the pool takes them, not all up front.
+        final Iterator tasks;
         if (SvnConfigurationOptions.isLegacyDiff()) {
-            for (final Iterator iter = fileBuilders.iterator(); iter.hasNext();) {
-                final FileBuilder fileBuilder = (FileBuilder) iter.next();
-                final String fileName = fileBuilder.getName();
-                if (fileBuilder.isBinary() || !builder.matchesPatterns(fileName)) {
-                    continue;
+            tasks = new LegacyDiffTaskIterator(fileBuilders.iterator());
+        } else {
+            final PriorityQueue largestFirst = createLargestFirstQueue();
+            tasks = new Iterator() {
+                // the tasks of a split revision not handed out yet.
+                private final LinkedList revisionTasks = new LinkedList();
+
+                public boolean hasNext() {
+                    return !revisionTasks.isEmpty() || !largestFirst.isEmpty();
                 }
-                final List revisions = fileBuilder.getRevisions();
-                for (int i = 0; i < revisions.size(); i++) {
-                    // line diffs are expensive operations. therefore, the
-                    // result is
-                    // stored in the
-                    // cacheBuilder and eventually persisted in the cache xml
-                    // file.
-                    // the next time
-                    // the file is read the line diffs (or 0/0 in case of binary
-                    // files) are intialized
-                    // in the RevisionData. this cause hasNoLines to be false
-                    // which
-                    // in turn causes the
-                    // if clause below to be skipped.
-                    if (i + 1 < revisions.size() && ((RevisionData) revisions.get(i)).hasNoLines() && !((RevisionData) revisions.get(i)).isDeletion()) {
-                        if (((RevisionData) revisions.get(i + 1)).isDeletion()) {
-                            continue;
-                        }
-                        final String revNrNew = ((RevisionData) revisions.get(i)).getRevisionNumber();
-                        if (cacheBuilder.isBinary(fileName, revNrNew)) {
-                            continue;
-                        }
-                        final String revNrOld = ((RevisionData) revisions.get(i + 1)).getRevisionNumber();
 
-                        if (isFirstDiff) {
-                            SvnConfigurationOptions.getTaskLogger().info("Contacting server to obtain line count information.");
-                            SvnConfigurationOptions.getTaskLogger().info(
-                                    "This information will be cached so that the next time you run StatSVN, results will be returned more quickly.");
+                public Object next() {
+                    if (revisionTasks.isEmpty()) {
+                        revisionTasks.addAll(createRevisionTasks((String) largestFirst.poll()));
+                    }
+                    return revisionTasks.removeFirst();
+                }
 
-                            if (SvnConfigurationOptions.isLegacyDiff()) {
-                                SvnConfigurationOptions.getTaskLogger().info("Using the legacy Subversion 1.3 diff mechanism: one diff per file per revision.");
-                            } else {
-                                SvnConfigurationOptions.getTaskLogger().info("Using the Subversion 1.4 diff mechanism: one diff per revision.");
-                            }
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+        if (SvnConfigurationOptions.isLegacyDiff() && tasks.hasNext()) {
+            SvnConfigurationOptions.getTaskLogger().info("Contacting server to obtain line count information.");
+            SvnConfigurationOptions.getTaskLogger().info(
+                    "This information will be cached so that the next time you run StatSVN, results will be returned more quickly.");
+            SvnConfigurationOptions.getTaskLogger().info("Using the legacy Subversion 1.3 diff mechanism: one diff per file per revision.");
+        }
+        // an interrupt stops the scheduling of the svn diff calls.
+        while (tasks.hasNext() && !Thread.currentThread().isInterrupted()) {
+            poolUseRequired = executeTask(poolService, poolUseRequired, (DiffTask) tasks.next());
+        }
+        waitForPoolIfRequired(poolService);
+        if (hedgedCalls != null) {
+            hedgedCalls.shutdown();
+        }
+        if (prefetcher != null) {
+            prefetcher.discardRemaining();
+        }
+        repositoryFileManager.closeDiffs();
+        SvnConfigurationOptions.getTaskLogger().log("parsing svn diff");
+        XMLUtil.writeXmlFile(cacheBuilder.getDocument(), cacheFileName);
+        SvnConfigurationOptions.getTaskLogger().log("parsing svn diff finished in " + (System.currentTimeMillis() - startTime) + " ms.");
+    }
 
-                            isFirstDiff = false;
-                        }
+    /**
+     * Reads the repositories file and the cache of line counts of this
+     * repository.
+     * 
+     * @param factory
+     *            the factory used to create SAX parsers.
+     * @throws IOException
+     *             if the repositories file cannot be written.
+     */
+    private void loadCache(final SAXParserFactory factory) throws IOException {
+        long startTime = System.currentTimeMillis();
+        final String xmlFile = SvnConfigurationOptions.getCacheDir() + REPOSITORIES_XML;
 
-                        final DiffTask diff = new DiffTask(fileName, revNrNew, revNrOld, fileBuilder);
+        final RepositoriesBuilder repositoriesBuilder = readAndParseXmlFile(factory, xmlFile);
+        cacheFileName = SvnConfigurationOptions.getCacheDir() + repositoriesBuilder.getFileName(repositoryFileManager.getRepositoryUuid());
+        XMLUtil.writeXmlFile(repositoriesBuilder.getDocument(), xmlFile);
+        SvnConfigurationOptions.getTaskLogger().log("parsing repositories finished in " + (System.currentTimeMillis() - startTime) + " ms.");
+        startTime = System.currentTimeMillis();
+
+        readCache(factory);
+        SvnConfigurationOptions.getTaskLogger().log("parsing line counts finished in " + (System.currentTimeMillis() - startTime) + " ms.");
+    }
 
-                        // SvnConfigurationOptions.getTaskLogger().log(Thread.currentThread().getName()
-                        // + " Schedule task for " + fileName + " rev:" +
-                        // revNrNew);
+    /**
+     * Starts the svn diff of a revision while the log is being parsed, if one
+     * of its files is likely to need it: a change or a copy of a file that is
+     * not binary in the working copy and whose line counts are not cached.
+     * Directories cannot be told from files yet, so a revision that only
+     * changes the properties of a directory is also fetched.
+     * 
+     * @param filenames
+     *            the relative filenames of the log entry
+     * @param revisions
+     *            the {@link RevisionData} of each filename
+     */
+    private void prefetchMissing(final List filenames, final List revisions) {
+        for (int i = 0; i < filenames.size(); i++) {
+            final String fileName = (String) filenames.get(i);
+            if (fileName == null) {
+                continue;
+            }
+            final RevisionData data = (RevisionData) revisions.get(i);
+            if (data.isDeletion() || (data.isCreationOrRestore() && data.getCopyfromPath() == null) || !builder.matchesPatterns(fileName)
+                    || repositoryFileManager.isBinary(fileName) || cacheBuilder.hasRevision(fileName, data.getRevisionNumber())) {
+                continue;
+            }
+            prefetcher.prefetch(data.getRevisionNumber());
+            return;
+        }
+    }
 
-                        poolUseRequired = executeTask(poolService, poolUseRequired, diff);
-                    }
+    /**
+     * Counts the paths a log entry changes on the branch, to estimate the cost
+     * of its svn diff.
+     * 
+     * @param filenames
+     *            the relative filenames of the log entry
+     * @param revisions
+     *            the {@link RevisionData} of each filename
+     */
+    private void countChangedPaths(final List filenames, final List revisions) {
+        int paths = 0;
+        for (int i = 0; i < filenames.size(); i++) {
+            if (filenames.get(i) != null) {
+                paths++;
+            }
+        }
+        if (paths > 0) {
+            changedPaths.put(((RevisionData) revisions.get(0)).getRevisionNumber(), Integer.valueOf(paths));
+        }
+
+        final int maxPaths = SvnConfigurationOptions.getSplitRevisionPaths();
+        if (maxPaths > 0 && paths > maxPaths) {
+            final List kept = new ArrayList();
+            for (int i = 0; i < filenames.size(); i++) {
+                // deleted paths are not diffed, and are gone in the revision.
+                if (filenames.get(i) != null && !((RevisionData) revisions.get(i)).isDeletion()) {
+                    kept.add(filenames.get(i).toString());
                 }
             }
-        } else {
-            for (final Iterator iter = revsForNewDiff.iterator(); iter.hasNext();) {
-                final String revNrNew = (String) iter.next();
-                final PerRevDiffTask diff = new PerRevDiffTask(revNrNew, builder.getFileBuilders());
+            splitRevisionPaths.put(((RevisionData) revisions.get(0)).getRevisionNumber(), kept);
+        }
+    }
 
-                poolUseRequired = executeTask(poolService, poolUseRequired, diff);
+    /**
+     * Creates the diff tasks of a revision: one for the whole revision, or,
+     * for a revision that changes more paths than {@link
+     * SvnConfigurationOptions#getSplitRevisionPaths()}, one per subtree so
+     * that several threads diff it at once. The subtrees do not overlap, and
+     * the results of each are applied to the same revision.
+     * 
+     * @param revision
+     *            the revision number
+     * @return the tasks, largest first.
+     */
+    private List createRevisionTasks(final String revision) {
+        final List tasks = new ArrayList();
+        final List paths = (List) splitRevisionPaths.remove(revision);
+        // diffs taken at the shared url of several branches are not split.
+        if (paths == null || sharedDiffUrl != null || (prefetcher != null && prefetcher.isPrefetched(revision)) || hasLocalRevisionDiff(revision)) {
+            tasks.add(new PerRevDiffTask(revision, builder.getFileBuilders()));
+            return tasks;
+        }
+
+        final List subtrees = new ArrayList();
+        splitSubtree("", paths, SvnConfigurationOptions.getSplitRevisionPaths(), subtrees);
+        if (subtrees.size() == 1) {
+            tasks.add(new PerRevDiffTask(revision, builder.getFileBuilders()));
+            return tasks;
+        }
+        Collections.sort(subtrees, new Comparator() {
+            public int compare(final Object o1, final Object o2) {
+                final int size1 = ((Integer) ((Object[]) o1)[2]).intValue();
+                final int size2 = ((Integer) ((Object[]) o2)[2]).intValue();
+                return size1 == size2 ? 0 : (size1 > size2 ? -1 : 1);
             }
+        });
+        final WholeRevisionDiff wholeRevision = new WholeRevisionDiff(revision);
+        for (final Iterator iter = subtrees.iterator(); iter.hasNext();) {
+            final Object[] subtree = (Object[]) iter.next();
+            tasks.add(new PerRevDiffTask(revision, builder.getFileBuilders(), (String) subtree[0], ((Boolean) subtree[1]).booleanValue(), wholeRevision));
+        }
+        requiredDiffCalls += tasks.size() - 1;
+        SvnConfigurationOptions.getTaskLogger().info("Splitting r" + revision + " (" + paths.size() + " paths) into " + tasks.size() + " svn diff calls.");
+        return tasks;
+    }
 
+    /**
+     * Splits the paths changed under a folder into subtrees of at most
+     * maxPaths paths where possible. A folder that is small enough, or that
+     * has too many changed files of its own, is kept whole; otherwise each of
+     * its changed files is a subtree, and each of its sub folders is split in
+     * turn.
+     * 
+     * @param folder
+     *            the folder, relative to the working folder; "" for the root
+     * @param paths
+     *            the paths changed under the folder, relative to it; "" for
+     *            the folder itself
+     * @param maxPaths
+     *            the largest number of paths in a subtree
+     * @param subtrees
+     *            receives an Object[] of [relative path, Boolean isFile,
+     *            Integer number of paths] per subtree
+     */
+    private void splitSubtree(final String folder, final List paths, final int maxPaths, final List subtrees) {
+        // name -> List of the paths under it, relative to it
+        final Map children = new TreeMap();
+        final HashSet parents = new HashSet();
+        for (final Iterator iter = paths.iterator(); iter.hasNext();) {
+            final String path = (String) iter.next();
+            if (path.length() == 0) {
+                continue;
+            }
+            final int slash = path.indexOf('/');
+            final String name = slash < 0 ? path : path.substring(0, slash);
+            List below = (List) children.get(name);
+            if (below == null) {
+                below = new ArrayList();
+                children.put(name, below);
+            }
+            below.add(slash < 0 ? "" : path.substring(slash + 1));
+            if (slash >= 0) {
+                parents.add(name);
+            }
+        }
+
+        final List looseFiles = new ArrayList();
+        for (final Iterator iter = children.keySet().iterator(); iter.hasNext();) {
+            final String name = (String) iter.next();
+            final String childPath = folder.length() == 0 ? name : folder + "/" + name;
+            if (!parents.contains(name) && builder.getFileBuilders().containsKey(childPath) && !repositoryFileManager.isDirectory(childPath)) {
+                looseFiles.add(childPath);
+            }
+        }
+        if (paths.size() <= maxPaths || looseFiles.size() > MAX_LOOSE_FILES) {
+            subtrees.add(new Object[] { folder, Boolean.FALSE, Integer.valueOf(paths.size()) });
+            return;
+        }
+
+        for (final Iterator iter = children.keySet().iterator(); iter.hasNext();) {
+            final String name = (String) iter.next();
+            final String childPath = folder.length() == 0 ? name : folder + "/" + name;
+            final List below = (List) children.get(name);
+            if (looseFiles.contains(childPath)) {
+                subtrees.add(new Object[] { childPath, Boolean.TRUE, Integer.valueOf(below.size()) });
+            } else {
+                splitSubtree(childPath, below, maxPaths, subtrees);
+            }
+        }
+    }
+
+    /**
+     * Orders the revisions to diff by their estimated cost, largest first, so
+     * that a huge revision does not start last and keep one thread busy once
+     * the others are done. The cost is the number of paths the revision
+     * changes in the log; a revision already prefetched costs nothing more.
+     * 
+     * @return the queue of revision numbers.
+     */
+    private PriorityQueue createLargestFirstQueue() {
+        final Map costs = new HashMap();
+        for (final Iterator iter = revsForNewDiff.iterator(); iter.hasNext();) {
+            final String revision = (String) iter.next();
+            final Integer paths = (Integer) changedPaths.get(revision);
+            final boolean isFree = paths == null || (prefetcher != null && prefetcher.isPrefetched(revision));
+            costs.put(revision, isFree ? Integer.valueOf(0) : paths);
+        }
+        final PriorityQueue queue = new PriorityQueue(Math.max(1, costs.size()), new Comparator() {
+            public int compare(final Object o1, final Object o2) {
+                final int cost1 = ((Integer) costs.get(o1)).intValue();
+                final int cost2 = ((Integer) costs.get(o2)).intValue();
+                return cost1 == cost2 ? 0 : (cost1 > cost2 ? -1 : 1);
+            }
+        });
+        queue.addAll(costs.keySet());
+        return queue;
+    }
+
+    /**
+     * Creates the pool that runs each svn diff on its own virtual thread, at
+     * most {@link SvnConfigurationOptions#getNumberSvnDiffThreads()} calling
+     * svn at a time. Without virtual threads (before Java 21), falls back to
+     * the fixed pool of platform threads.
+     * 
+     * @return the pool, null if there is no concurrency.
+     */
+    private ExecutorService createVirtualThreadPool() {
+        final int maxRequests = SvnConfigurationOptions.getNumberSvnDiffThreads();
+        final VirtualThreadFactory factory = new VirtualThreadFactory();
+        if (!factory.isVirtual()) {
+            SvnConfigurationOptions.getTaskLogger().info("Virtual threads require Java 21; using " + maxRequests + " svn diff threads.");
+            return maxRequests > 1 ? Executors.newFixedThreadPool(maxRequests) : null;
+        }
+        svnRequests = new Semaphore(Math.max(1, maxRequests));
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 0L, TimeUnit.MILLISECONDS, new SynchronousQueue(), factory);
+    }
+
+    /**
+     * Waits for one of the svn calls allowed at the same time, in virtual
+     * thread mode.
+     * 
+     * @throws IOException
+     *             if interrupted while waiting.
+     */
+    private void beginSvnRequest() throws IOException {
+        try {
+            if (adaptiveLimit != null) {
+                adaptiveLimit.acquire();
+            } else if (svnRequests != null) {
+                svnRequests.acquire();
+            }
+        } catch (final InterruptedException e) {
+            throw new IOException("Interrupted while waiting to call svn.");
+        }
+    }
+
+    /**
+     * Ends a call started with {@link #beginSvnRequest()}.
+     * 
+     * @param latency
+     *            how long the call took, in ms
+     * @param failed
+     *            true if the call failed
+     */
+    private void endSvnRequest(final long latency, final boolean failed) {
+        if (adaptiveLimit != null) {
+            adaptiveLimit.release(latency, failed);
+        } else if (svnRequests != null) {
+            svnRequests.release();
         }
-        waitForPoolIfRequired(poolService);
-        SvnConfigurationOptions.getTaskLogger().log("parsing svn diff");
-        XMLUtil.writeXmlFile(cacheBuilder.getDocument(), cacheFileName);
-        SvnConfigurationOptions.getTaskLogger().log("parsing svn diff finished in " + (System.currentTimeMillis() - startTime) + " ms.");
     }
 
     private boolean executeTask(final ExecutorService poolService, boolean poolUseRequired, final DiffTask diff) {
-        if (poolUseRequired && SvnConfigurationOptions.getNumberSvnDiffThreads() > 1) {
-            poolService.execute(diff);
+        // virtual threads are cheap, and the adaptive limit decides itself.
+        if (poolService != null && (poolUseRequired || svnRequests != null || adaptiveLimit != null)) {
+            // blocks while the workers are behind, so the queue stays small.
+            try {
+                queuedTasks.acquire();
+            } catch (final InterruptedException e) {
+                SvnConfigurationOptions.getTaskLogger().error(
+                        "Interrupted while scheduling svn diff calls: r" + diff.getNewRevision() + " and the revisions after it are not diffed.");
+                Thread.currentThread().interrupt();
+                return poolUseRequired;
+            }
+            poolService.execute(new Runnable() {
+                public void run() {
+                    try {
+                        diff.run();
+                    } finally {
+                        queuedTasks.release();
+                    }
+                }
+            });
         } else {
             final long start = System.currentTimeMillis();
             diff.run();
@@ -222,10 +558,20 @@ public class SvnLogfileParser {
     }
 
     private void waitForPoolIfRequired(final ExecutorService poolService) {
-        if (SvnConfigurationOptions.getNumberSvnDiffThreads() > 1 && poolService != null) {
-            SvnConfigurationOptions.getTaskLogger().info(
-                    "Scheduled " + requiredDiffCalls + " svn diff calls on " + Math.min(requiredDiffCalls, SvnConfigurationOptions.getNumberSvnDiffThreads())
-                            + " threads.");
+        if (poolService != null) {
+            if (adaptiveLimit != null) {
+                SvnConfigurationOptions.getTaskLogger().info(
+                        "Scheduled " + requiredDiffCalls + " svn diff calls, " + SvnConfigurationOptions.getMinNumberSvnDiffThreads() + " to "
+                                + SvnConfigurationOptions.getNumberSvnDiffThreads() + " at a time.");
+            } else if (svnRequests != null) {
+                SvnConfigurationOptions.getTaskLogger().info(
+                        "Scheduled " + requiredDiffCalls + " svn diff calls on virtual threads, " + SvnConfigurationOptions.getNumberSvnDiffThreads()
+                                + " at a time.");
+            } else {
+                SvnConfigurationOptions.getTaskLogger().info(
+                        "Scheduled " + requiredDiffCalls + " svn diff calls on "
+                                + Math.min(requiredDiffCalls, SvnConfigurationOptions.getNumberSvnDiffThreads()) + " threads.");
+            }
             poolService.shutdown();
             try {
                 SvnConfigurationOptions.getTaskLogger().log("================ Wait for completion =========================");
@@ -234,7 +580,191 @@ public class SvnLogfileParser {
                 }
             } catch (final InterruptedException e) {
                 SvnConfigurationOptions.getTaskLogger().error(e.toString());
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Records the copies that would otherwise be diffed as moves: 0 lines
+     * added and removed, binary if the source of the copy is binary in the
+     * cache. Only copies that the log shows as not modified by the same
+     * revision are resolved: logs of svn before 1.7 and text logs do not tell,
+     * so their copies are diffed as usual. A copy that is part of a revision
+     * diffed for other files still takes the counts of that diff.
+     * 
+     * @param fileBuilders
+     *            the files
+     */
+    private void resolveCopies(final Collection fileBuilders) {
+        final int[] resolved = new int[1];
+        final CacheBuilder.BinaryIndex binaryIndex = cacheBuilder.createBinaryIndex();
+        new PartitionedPass() {
+            protected Object createPartitionResult() {
+                return new int[1];
+            }
+
+            protected void process(final Object item, final Object partitionResult) {
+                final FileBuilder fileBuilder = (FileBuilder) item;
+                final String fileName = fileBuilder.getName();
+                if (fileBuilder.isBinary() || !builder.matchesPatterns(fileName)) {
+                    return;
+                }
+                final List revisions = fileBuilder.getRevisions();
+                for (int i = 0; i + 1 < revisions.size(); i++) {
+                    final RevisionData data = (RevisionData) revisions.get(i);
+                    if (!data.hasNoLines() || data.isDeletion() || ((RevisionData) revisions.get(i + 1)).isDeletion() || data.getCopyfromPath() == null
+                            || data.getCopyfromRevision() == null || !"false".equals(data.getTextMods())) {
+                        continue;
+                    }
+                    final boolean isBinary = binaryIndex.isAbsoluteBinary(data.getCopyfromPath(), data.getCopyfromRevision());
+                    data.setLines(0, 0);
+                    cacheBuilder.newRevision(fileName, data.getRevisionNumber(), "0", "0", isBinary);
+                    if (isBinary) {
+                        fileBuilder.setBinary(true);
+                    }
+                    ((int[]) partitionResult)[0]++;
+                }
             }
+
+            protected void merge(final Object partitionResult) {
+                resolved[0] += ((int[]) partitionResult)[0];
+            }
+        }.run(fileBuilders);
+        SvnConfigurationOptions.getTaskLogger().log("resolved " + resolved[0] + " copies as moves.");
+    }
+
+    /**
+     * Marks the files that are likely binary before the svn diffs, so that
+     * their revisions are not diffed only to find out. The working copy gives
+     * the binary status of the files it contains; for the files that were
+     * deleted, the status is guessed from the extension of the file, from a
+     * binary revision of the file in the cache, or from a binary source of one
+     * of its copies.
+     * 
+     * Up to {@link SvnConfigurationOptions#getBinaryVerificationSample()}
+     * files are checked first by diffing their newest revision; a file that
+     * turns out to be text, or that cannot be checked, is diffed as usual.
+     * The revisions of a file svn diff finds binary are cached as binary; the
+     * files beyond the sample are only guesses, kept out of the cache so that
+     * a later run checks them again.
+     * 
+     * @param fileBuilders
+     *            the files
+     */
+    private void classifyBinaryFiles(final Collection fileBuilders) {
+        final List likelyBinary = new ArrayList();
+        final CacheBuilder.BinaryIndex binaryIndex = cacheBuilder.createBinaryIndex();
+        new PartitionedPass() {
+            protected Object createPartitionResult() {
+                return new ArrayList();
+            }
+
+            protected void process(final Object item, final Object partitionResult) {
+                final FileBuilder fileBuilder = (FileBuilder) item;
+                final String fileName = fileBuilder.getName();
+                if (fileBuilder.isBinary() || !builder.matchesPatterns(fileName)) {
+                    return;
+                }
+                final List revisions = fileBuilder.getRevisions();
+                // only the files no longer in the working copy are unknown.
+                if (revisions.isEmpty() || !((RevisionData) revisions.get(0)).isDeletion()) {
+                    return;
+                }
+                final List toDiff = new ArrayList();
+                boolean copiedFromBinary = false;
+                for (int i = 0; i + 1 < revisions.size(); i++) {
+                    final RevisionData data = (RevisionData) revisions.get(i);
+                    if (!data.hasNoLines() || data.isDeletion() || ((RevisionData) revisions.get(i + 1)).isDeletion()) {
+                        continue;
+                    }
+                    toDiff.add(data);
+                    if (data.getCopyfromPath() != null && data.getCopyfromRevision() != null
+                            && binaryIndex.isAbsoluteBinary(data.getCopyfromPath(), data.getCopyfromRevision())) {
+                        copiedFromBinary = true;
+                    }
+                }
+                if (!toDiff.isEmpty() && (copiedFromBinary || hasBinaryExtension(fileName) || binaryIndex.hasBinaryHistory(fileName))) {
+                    ((List) partitionResult).add(new Object[] { fileBuilder, toDiff });
+                }
+            }
+
+            protected void merge(final Object partitionResult) {
+                likelyBinary.addAll((List) partitionResult);
+            }
+        }.run(fileBuilders);
+
+        int sample = SvnConfigurationOptions.getBinaryVerificationSample();
+        int marked = 0;
+        int guessed = 0;
+        int rejected = 0;
+        int failed = 0;
+        for (final Iterator iter = likelyBinary.iterator(); iter.hasNext();) {
+            final Object[] element = (Object[]) iter.next();
+            final FileBuilder fileBuilder = (FileBuilder) element[0];
+            final List toDiff = (List) element[1];
+            if (sample > 0) {
+                sample--;
+                final int outcome = verifyBinary(fileBuilder, (RevisionData) toDiff.get(0));
+                if (outcome == VERIFIED_TEXT) {
+                    rejected++;
+                    continue;
+                }
+                if (outcome == NOT_VERIFIED) {
+                    failed++;
+                    continue;
+                }
+                for (final Iterator revs = toDiff.iterator(); revs.hasNext();) {
+                    cacheBuilder.newRevision(fileBuilder.getName(), ((RevisionData) revs.next()).getRevisionNumber(), "0", "0", true);
+                }
+            } else {
+                guessed++;
+            }
+            fileBuilder.setBinary(true);
+            marked++;
+        }
+        SvnConfigurationOptions.getTaskLogger().log(
+                "classified " + marked + " deleted files as binary (" + guessed + " unverified), " + rejected + " rejected by svn diff, " + failed
+                        + " could not be checked.");
+    }
+
+    private static boolean hasBinaryExtension(final String fileName) {
+        final int dot = fileName.lastIndexOf('.');
+        if (dot < 0 || dot < fileName.lastIndexOf('/')) {
+            return false;
+        }
+        final String extension = fileName.substring(dot + 1).toLowerCase();
+        for (int i = 0; i < BINARY_EXTENSIONS.length; i++) {
+            if (BINARY_EXTENSIONS[i].equals(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Diffs the given revision of a file guessed binary.
+     * 
+     * @return VERIFIED_BINARY, VERIFIED_TEXT, in which case the line counts of
+     *         the revision are recorded, or NOT_VERIFIED if svn diff failed.
+     */
+    private int verifyBinary(final FileBuilder fileBuilder, final RevisionData data) {
+        final String fileName = fileBuilder.getName();
+        final List revisions = fileBuilder.getRevisions();
+        final String revNrOld = ((RevisionData) revisions.get(revisions.indexOf(data) + 1)).getRevisionNumber();
+        try {
+            final int[] lineDiff = repositoryFileManager.getLineDiff(revNrOld, data.getRevisionNumber(), fileName);
+            SvnConfigurationOptions.getTaskLogger().info(fileName + " guessed binary but is text on r" + data.getRevisionNumber() + ".");
+            if (lineDiff[0] != -1 && lineDiff[1] != -1) {
+                builder.updateRevision(fileName, data.getRevisionNumber(), lineDiff[0], lineDiff[1]);
+                cacheBuilder.newRevision(fileName, data.getRevisionNumber(), lineDiff[0] + "", lineDiff[1] + "", false);
+            }
+            return VERIFIED_TEXT;
+        } catch (final BinaryDiffException e) {
+            return VERIFIED_BINARY;
+        } catch (final IOException e) {
+            SvnConfigurationOptions.getTaskLogger().error("Unable to check binary status of " + fileName + ": " + e.toString());
+            return NOT_VERIFIED;
         }
     }
 
@@ -246,33 +776,43 @@ public class SvnLogfileParser {
             revsForNewDiff = new HashSet();
         }
 
-        for (final Iterator iter = fileBuilders.iterator(); iter.hasNext();) {
-            final FileBuilder fileBuilder = (FileBuilder) iter.next();
-            final String fileName = fileBuilder.getName();
-            if (!fileBuilder.isBinary() && builder.matchesPatterns(fileName)) {
-                final List revisions = fileBuilder.getRevisions();
-                for (int i = 0; i < revisions.size(); i++) {
-                    if (i + 1 < revisions.size() && ((RevisionData) revisions.get(i)).hasNoLines() && !((RevisionData) revisions.get(i)).isDeletion()) {
-                        if (((RevisionData) revisions.get(i + 1)).isDeletion()) {
-                            continue;
-                        }
-                        final String revNrNew = ((RevisionData) revisions.get(i)).getRevisionNumber();
-                        if (cacheBuilder.isBinary(fileName, revNrNew)) {
-                            continue;
-                        }
-                        // count if legacy diff or this rev wasn't already
-                        // counted.
-                        if (revsForNewDiff == null || !revsForNewDiff.contains(revNrNew)) {
-                            requiredDiffCalls++;
+        final CacheBuilder.BinaryIndex binaryIndex = cacheBuilder.createBinaryIndex();
+        new PartitionedPass() {
+            protected Object createPartitionResult() {
+                // legacy diff: the calls, otherwise the revisions to diff.
+                return revsForNewDiff == null ? (Collection) new ArrayList() : new HashSet();
+            }
 
-                            if (revsForNewDiff != null) {
-                                revsForNewDiff.add(revNrNew);
+            protected void process(final Object item, final Object partitionResult) {
+                final FileBuilder fileBuilder = (FileBuilder) item;
+                final String fileName = fileBuilder.getName();
+                if (!fileBuilder.isBinary() && builder.matchesPatterns(fileName)) {
+                    final List revisions = fileBuilder.getRevisions();
+                    for (int i = 0; i < revisions.size(); i++) {
+                        if (i + 1 < revisions.size() && ((RevisionData) revisions.get(i)).hasNoLines() && !((RevisionData) revisions.get(i)).isDeletion()) {
+                            if (((RevisionData) revisions.get(i + 1)).isDeletion()) {
+                                continue;
                             }
+                            final String revNrNew = ((RevisionData) revisions.get(i)).getRevisionNumber();
+                            if (binaryIndex.isBinary(fileName, revNrNew)) {
+                                continue;
+                            }
+                            ((Collection) partitionResult).add(revNrNew);
                         }
                     }
                 }
             }
-        }
+
+            protected void merge(final Object partitionResult) {
+                // count if legacy diff or this rev wasn't already counted.
+                if (revsForNewDiff == null) {
+                    requiredDiffCalls += ((Collection) partitionResult).size();
+                } else {
+                    revsForNewDiff.addAll((Collection) partitionResult);
+                    requiredDiffCalls = revsForNewDiff.size();
+                }
+            }
+        }.run(fileBuilders);
         // END Calculate the number of required calls...
     }
 
@@ -333,9 +873,30 @@ public class SvnLogfileParser {
      *             if errors while reading from the log Reader
      */
     public void parse() throws LogSyntaxException, IOException {
+        repositoryFileManager.setRateLimiter(DiffRateLimiter.create());
+        if (SvnConfigurationOptions.isPipelinedDiff() && !SvnConfigurationOptions.isLegacyDiff()) {
+            // the cache tells which revisions to fetch while parsing.
+            loadCache(SAXParserFactory.newInstance());
+            prefetcher = new DiffPrefetcher(this);
+        }
 
         final SAXParserFactory factory = parseSvnLog();
+        if (prefetcher != null) {
+            prefetcher.endOfLog();
+        }
 
+        processParsedLog(factory);
+    }
+
+    /**
+     * Post-parse processing, once the builder has received the whole log.
+     * 
+     * @param factory
+     *            the factory used to create SAX parsers.
+     * @throws IOException
+     *             if errors while reading or writing the cache
+     */
+    protected void processParsedLog(final SAXParserFactory factory) throws IOException {
         verifyImplicitActions();
 
         // must be after verifyImplicitActions();
@@ -364,201 +925,181 @@ public class SvnLogfileParser {
         final long startTime = System.currentTimeMillis();
         SvnConfigurationOptions.getTaskLogger().log("verifying implicit actions ...");
 
-        final HashSet implicitActions = new HashSet();
-
-        // get all filenames
-        final ArrayList files = new ArrayList();
-        final Collection fileBuilders = fetchAllFileNames(files);
-
-        // sort them so that folders are immediately followed by the folder
-        // entries and then by other files which are prefixed by the folder
-        // name.
-        Collections.sort(files, new FilenameComparator());
-
-        // for each file
-        for (int i = 0; i < files.size(); i++) {
-            final String parent = files.get(i).toString();
-            final FileBuilder parentBuilder = (FileBuilder) builder.getFileBuilders().get(parent);
-            // check to see if there are files that indicate that parent is a
-            // folder.
-            for (int j = i + 1; j < files.size() && files.get(j).toString().indexOf(parent + "/") == 0; j++) {
-                // we might not know that it was a folder.
-                repositoryFileManager.addDirectory(parent);
-
-                final String child = files.get(j).toString();
-                final FileBuilder childBuilder = (FileBuilder) builder.getFileBuilders().get(child);
-                // for all revisions in the the parent folder
-                for (final Iterator iter = parentBuilder.getRevisions().iterator(); iter.hasNext();) {
-                    final RevisionData parentData = (RevisionData) iter.next();
-                    int parentRevision;
-                    try {
-                        parentRevision = Integer.parseInt(parentData.getRevisionNumber());
-                    } catch (final Exception e) {
-                        continue;
-                    }
-
-                    // ignore modifications to folders
-                    if (parentData.isCreationOrRestore() || parentData.isDeletion()) {
-                        int k;
-
-                        // check to see if the parent revision is an implicit
-                        // action acting on the child.
-                        k = detectActionOnChildGivenActionOnParent(childBuilder, parentRevision);
-
-                        // we found something to insert
-                        if (k < childBuilder.getRevisions().size()) {
-                            createImplicitAction(implicitActions, child, childBuilder, parentData, k);
-                        }
-                    }
-                }
-            }
+        // place all files in a tree so that the additions and deletions of a
+        // folder can be pushed down to everything below it in one traversal.
+        final PathNode root = new PathNode();
+        for (final Iterator iter = builder.getFileBuilders().values().iterator(); iter.hasNext();) {
+            final FileBuilder fileBuilder = (FileBuilder) iter.next();
+            root.getDescendant(fileBuilder.getName()).fileBuilder = fileBuilder;
         }
+        final List files = new ArrayList();
+        pushDownImplicitActions(root, new ArrayList(), files);
+
+        // the merge of each file is independent from the others.
+        new PartitionedPass() {
+            protected void process(final Object item, final Object partitionResult) {
+                final PathNode node = (PathNode) item;
+                mergeImplicitActions(node.fileBuilder, node.parentActions);
+            }
+        }.run(files);
 
-        // Some implicit revisions may have resulted in double deletion
-        // (e.g. deleting a directory and THEN deleting the parent directory).
-        // this will get rid of any consecutive deletion.
-        cleanPotentialDuplicateImplicitActions(fileBuilders);
-
-        // in the preceeding block, we add implicit additions to too may files.
-        // possibly a folder was deleted and restored later on, without the
-        // specific file being re-added. we get rid of those here. however,
-        // without knowledge of what was copied during the implicit additions /
-        // replacements, we will remove as many implicit actions as possible
-        // 
-        // this solution is imperfect.
-
-        // Examples:
-        // IA ID IA ID M A -> ID M A
-        // IA ID A D M A -> ID A D M A
-        removePotentialInconsistencies(implicitActions, fileBuilders);
         SvnConfigurationOptions.getTaskLogger().log("verifying implicit actions finished in " + (System.currentTimeMillis() - startTime) + " ms.");
     }
 
-    private void createImplicitAction(final HashSet implicitActions, final String child, final FileBuilder childBuilder, final RevisionData parentData,
-            final int k) {
-        // we want to memorize this implicit action.
-        final RevisionData implicit = parentData.createCopy();
-        implicitActions.add(implicit);
-
-        // avoid concurrent modification errors.
-        final List toMove = new ArrayList();
-        for (final Iterator it = childBuilder.getRevisions().subList(k, childBuilder.getRevisions().size()).iterator(); it.hasNext();) {
-            final RevisionData revToMove = (RevisionData) it.next();
-            // if
-            // (!revToMove.getRevisionNumber().equals(implicit.getRevisionNumber()))
-            // {
-            toMove.add(revToMove);
-            // }
+    /**
+     * Depth-first traversal of the path tree. The additions and deletions of
+     * all folders above a node are received in <tt>parentActions</tt>, one
+     * {@link FolderActions} per folder, root first, and are kept in the node
+     * for {@link #mergeImplicitActions(FileBuilder, FolderActions[])}. Also
+     * registers the folders that have files below them.
+     * 
+     * @return true if a file was found in this node or below it.
+     */
+    private boolean pushDownImplicitActions(final PathNode node, final List parentActions, final List files) {
+        FolderActions ownActions = null;
+        if (node.fileBuilder != null) {
+            node.parentActions = (FolderActions[]) parentActions.toArray(new FolderActions[parentActions.size()]);
+            files.add(node);
+            if (!node.children.isEmpty()) {
+                ownActions = new FolderActions(node.fileBuilder.getName(), node.fileBuilder.getRevisions());
+            }
         }
 
-        // remove the revisions to be moved.
-        childBuilder.getRevisions().removeAll(toMove);
-
-        // don't call addRevision directly. buildRevision
-        // does more.
-        builder.buildFile(child, false, false, new HashMap(), new HashMap());
-
-        // only add the implicit if the last one for the
-        // file is NOT a deletion!
-        // if (!toMove.isEmpty() && !((RevisionData)
-        // toMove.get(0)).isDeletion()) {
-        builder.buildRevision(implicit);
-        // }
-
-        // copy back the revisions we removed.
-        for (final Iterator it = toMove.iterator(); it.hasNext();) {
-            builder.buildRevision((RevisionData) it.next());
+        if (ownActions != null && ownActions.size > 0) {
+            parentActions.add(ownActions);
+        }
+        boolean hasFileBelow = false;
+        for (final Iterator iter = node.children.values().iterator(); iter.hasNext();) {
+            hasFileBelow |= pushDownImplicitActions((PathNode) iter.next(), parentActions, files);
+        }
+        if (ownActions != null && ownActions.size > 0) {
+            parentActions.remove(parentActions.size() - 1);
         }
-    }
-
-    private int detectActionOnChildGivenActionOnParent(final FileBuilder childBuilder, final int parentRevision) {
-        int k;
-        for (k = 0; k < childBuilder.getRevisions().size(); k++) {
-            final RevisionData childData = (RevisionData) childBuilder.getRevisions().get(k);
-            final int childRevision = Integer.parseInt(childData.getRevisionNumber());
-
-            // we don't want to add duplicate entries for the
-            // same revision
-            if (parentRevision == childRevision) {
-                k = childBuilder.getRevisions().size();
-                break;
-            }
 
-            if (parentRevision > childRevision) {
-                break; // we must insert it here!
-            }
+        if (node.fileBuilder != null && hasFileBelow) {
+            // we might not know that it was a folder.
+            repositoryFileManager.addDirectory(node.fileBuilder.getName());
         }
-        return k;
+        return hasFileBelow || node.fileBuilder != null;
     }
 
-    private void removePotentialInconsistencies(final HashSet implicitActions, final Collection fileBuilders) {
-        for (final Iterator iter = fileBuilders.iterator(); iter.hasNext();) {
-            final FileBuilder filebuilder = (FileBuilder) iter.next();
-
-            // make sure our attic is well set, with our new deletions that we
-            // might have added.
-            if (!repositoryFileManager.existsInWorkingCopy(filebuilder.getName())) {
-                builder.addToAttic(filebuilder.getName());
+    /**
+     * <p>
+     * Merges the actions of the parent folders into the revisions of a file,
+     * in a single k-way merge of the file's revisions and of each folder's
+     * actions, all sorted newest first. A parent action is only inserted if it
+     * is more recent than the file's first revision and if the file has no
+     * revision with the same number. When several folders act on the same
+     * revision, the one closest to the root wins.
+     * </p>
+     * 
+     * <p>
+     * The following cleanups are done in the same pass:
+     * </p>
+     * <ul>
+     * <li>Some implicit revisions may result in double deletion (e.g.
+     * deleting a directory and THEN deleting the parent directory). Any
+     * deletion that follows a deletion is dropped.</li>
+     * <li>We add implicit additions to too many files. Possibly a folder was
+     * deleted and restored later on, without the specific file being re-added.
+     * Without knowledge of what was copied during the implicit additions /
+     * replacements, we remove as many implicit actions as possible from files
+     * which are not in the working copy. This solution is imperfect.
+     * Examples: IA ID IA ID M A -> ID M A, IA ID A D M A -> ID A D M A</li>
+     * </ul>
+     * 
+     * @param fileBuilder
+     *            the file
+     * @param folders
+     *            the actions of the file's parent folders, root first
+     */
+    private void mergeImplicitActions(final FileBuilder fileBuilder, final FolderActions[] folders) {
+        final List revisions = fileBuilder.getRevisions();
+        final int[] ownRevisions = FolderActions.toRevisionNumbers(revisions);
+        final int oldestRevision = ownRevisions.length > 0 ? ownRevisions[ownRevisions.length - 1] : Integer.MAX_VALUE;
+
+        final int[] positions = new int[folders.length];
+
+        final List merged = new ArrayList(revisions.size());
+        boolean changed = false;
+        boolean previousIsDelete = false;
+        boolean leadingImplicitActions = true;
+        int earliestDelete = -1;
+        int lastRevision = Integer.MAX_VALUE;
+        int own = 0;
+        while (true) {
+            // the most recent folder action; on ties, the closest to the root.
+            int folder = -1;
+            for (int f = 0; f < folders.length; f++) {
+                if (positions[f] < folders[f].size
+                        && (folder < 0 || folders[f].revisions[positions[f]] > folders[folder].revisions[positions[folder]])) {
+                    folder = f;
+                }
             }
-
-            // do we detect an inconsistency?
-            if (!repositoryFileManager.existsInWorkingCopy(filebuilder.getName()) && !filebuilder.finalRevisionIsDead()) {
-                int earliestDelete = -1;
-                for (int i = 0; i < filebuilder.getRevisions().size(); i++) {
-                    final RevisionData data = (RevisionData) filebuilder.getRevisions().get(i);
-
-                    if (data.isDeletion()) {
-                        earliestDelete = i;
-                    }
-
-                    if ((!data.isCreationOrRestore() && data.isChange()) || !implicitActions.contains(data)) {
-                        break;
-                    }
+            final int folderRevision = folder < 0 ? -1 : folders[folder].revisions[positions[folder]];
+
+            RevisionData data;
+            boolean implicit = false;
+            if (own < ownRevisions.length && ownRevisions[own] >= folderRevision) {
+                data = (RevisionData) revisions.get(own);
+                lastRevision = ownRevisions[own++];
+            } else if (folderRevision > oldestRevision) {
+                positions[folder]++;
+                // we don't want to add duplicate entries for the same revision
+                if (folderRevision == lastRevision) {
+                    continue;
                 }
-
-                if (earliestDelete > 0) {
-                    // avoid concurrent modification errors.
-                    final List toRemove = new ArrayList();
-                    for (final Iterator it = filebuilder.getRevisions().subList(0, earliestDelete).iterator(); it.hasNext();) {
-                        toRemove.add(it.next());
-                    }
-                    filebuilder.getRevisions().removeAll(toRemove);
+                final RevisionData folderData = folders[folder].data[positions[folder] - 1];
+                data = folderData.createCopy();
+                if (folderData.getCopyfromPath() != null) {
+                    // what the copy of the folder copied to this file.
+                    data.setCopyfromPath(folderData.getCopyfromPath() + fileBuilder.getName().substring(folders[folder].name.length()));
+                    data.setCopyfromRevision(folderData.getCopyfromRevision());
+                    data.setTextMods("false");
                 }
+                lastRevision = folderRevision;
+                implicit = true;
+                changed = true;
+            } else {
+                break;
             }
-        }
-    }
 
-    private void cleanPotentialDuplicateImplicitActions(final Collection fileBuilders) {
-        for (final Iterator iter = fileBuilders.iterator(); iter.hasNext();) {
-            final FileBuilder filebuilder = (FileBuilder) iter.next();
+            if (data.isDeletion() && previousIsDelete) {
+                changed = true;
+                continue;
+            }
+            previousIsDelete = data.isDeletion();
+            merged.add(data);
 
-            boolean previousIsDelete = false;
-            final List toRemove = new ArrayList();
-            // for this file, iterate through all revisions and store any
-            // deletion revision that follows
-            // a deletion.
-            for (final Iterator it = filebuilder.getRevisions().iterator(); it.hasNext();) {
-                final RevisionData data = (RevisionData) it.next();
-                if (data.isDeletion() && previousIsDelete) {
-                    toRemove.add(data);
+            if (leadingImplicitActions) {
+                if (data.isDeletion()) {
+                    earliestDelete = merged.size() - 1;
                 }
-                previousIsDelete = data.isDeletion();
+                leadingImplicitActions = implicit && (data.isCreationOrRestore() || !data.isChange());
             }
+        }
 
-            // get rid of the duplicate deletion for this file.
-            if (!toRemove.isEmpty()) {
-                filebuilder.getRevisions().removeAll(toRemove);
-            }
+        final boolean inWorkingCopy = repositoryFileManager.existsInWorkingCopy(fileBuilder.getName());
+        if (!inWorkingCopy) {
+            // make sure our attic is well set, with our new deletions that we
+            // might have added.
+            builder.addToAttic(fileBuilder.getName());
+        }
+        int first = 0;
+        if (!inWorkingCopy && !merged.isEmpty() && !((RevisionData) merged.get(0)).isDeletion() && earliestDelete > 0) {
+            first = earliestDelete;
+            changed = true;
         }
-    }
 
-    private Collection fetchAllFileNames(final ArrayList files) {
-        final Collection fileBuilders = builder.getFileBuilders().values();
-        for (final Iterator iter = fileBuilders.iterator(); iter.hasNext();) {
-            final FileBuilder fileBuilder = (FileBuilder) iter.next();
-            files.add(fileBuilder.getName());
+        if (changed) {
+            revisions.clear();
+            // buildRevision cannot be used from several threads, as it goes
+            // through the builder's current file. What it does more is
+            // not needed: all these revisions were built once already.
+            for (final Iterator iter = merged.subList(first, merged.size()).iterator(); iter.hasNext();) {
+                fileBuilder.addRevisionData((RevisionData) iter.next());
+            }
         }
-        return fileBuilders;
     }
 
     /**
@@ -574,17 +1115,26 @@ public class SvnLogfileParser {
     protected void removeDirectories() {
         final Collection fileBuilders = builder.getFileBuilders().values();
         final ArrayList toRemove = new ArrayList();
-        for (final Iterator iter = fileBuilders.iterator(); iter.hasNext();) {
-            final FileBuilder fileBuilder = (FileBuilder) iter.next();
-            if (repositoryFileManager.isDirectory(fileBuilder.getName())) {
-                toRemove.add(fileBuilder.getName());
+        new PartitionedPass() {
+            protected Object createPartitionResult() {
+                return new ArrayList();
             }
-        }
+
+            protected void process(final Object item, final Object partitionResult) {
+                final FileBuilder fileBuilder = (FileBuilder) item;
+                if (repositoryFileManager.isDirectory(fileBuilder.getName())) {
+                    ((List) partitionResult).add(fileBuilder.getName());
+                }
+            }
+
+            protected void merge(final Object partitionResult) {
+                toRemove.addAll((List) partitionResult);
+            }
+        }.run(fileBuilders);
 
         for (final Iterator iter = toRemove.iterator(); iter.hasNext();) {
             builder.getFileBuilders().remove(iter.next());
         }
-
     }
 
     /**
@@ -603,7 +1153,15 @@ public class SvnLogfileParser {
         final SAXParserFactory factory = SAXParserFactory.newInstance();
         try {
             final SAXParser parser = factory.newSAXParser();
-            parser.parse(logFile, new SvnXmlLogFileHandler(builder, repositoryFileManager));
+            final SvnXmlLogFileHandler handler = new SvnXmlLogFileHandler(builder, repositoryFileManager, createMessageStore(logFile)) {
+                protected void logEntryBuilt(final List filenames, final List revisions) {
+                    countChangedPaths(filenames, revisions);
+                    if (prefetcher != null) {
+                        prefetchMissing(filenames, revisions);
+                    }
+                }
+            };
+            parser.parse(logFile, handler);
         } catch (final ParserConfigurationException e) {
             throw new LogSyntaxException("svn log: " + e.getMessage());
         } catch (final SAXException e) {
@@ -614,16 +1172,192 @@ public class SvnLogfileParser {
         return factory;
     }
 
-    private long totalTime = 0;
+    /**
+     * Maps the log file in memory so that commit messages can be read back on
+     * demand instead of being held by every {@link RevisionData}.
+     * 
+     * @param logFile
+     *            the svn log
+     * @return the message store, or null if the log is not a file.
+     */
+    static CommitMessageStore createMessageStore(final InputStream logFile) {
+        if (!(logFile instanceof FileInputStream)) {
+            return null;
+        }
+        try {
+            final CommitMessageStore store = new CommitMessageStore(((FileInputStream) logFile).getChannel());
+            if (store.isSupported()) {
+                return store;
+            }
+        } catch (final IOException e) {
+            SvnConfigurationOptions.getTaskLogger().log("Unable to map svn log: " + e.toString());
+        }
+        return null;
+    }
+
+    /**
+     * When several branches are processed from the same log, per-revision
+     * diffs are taken at the common url of all branches. Results for files on
+     * other branches are stored in the cache, so that each revision is only
+     * fetched once.
+     * 
+     * @param url
+     *            the url under which all branches are found.
+     */
+    public void setSharedDiffUrl(final String url) {
+        this.sharedDiffUrl = url;
+    }
+
+    /**
+     * Tells whether the line counts of a revision are at hand without svn
+     * diff. Such a revision is not split, as {@link #getRevisionDiff(String)}
+     * gives it whole.
+     * 
+     * @param revision
+     *            the revision number
+     * @return true if {@link #getRevisionDiff(String)} does not call svn.
+     */
+    protected boolean hasLocalRevisionDiff(final String revision) {
+        return false;
+    }
+
+    /**
+     * Obtains the line counts of all files changed in a revision.
+     * 
+     * @param newRevision
+     *            the revision number
+     * @return the results of {@link RepositoryFileManager#getRevisionDiff(String)}
+     * @throws IOException
+     *             problem executing svn diff
+     * @throws BinaryDiffException
+     *             not supposed to happen for a revision
+     */
+    protected Vector getRevisionDiff(final String newRevision) throws IOException, BinaryDiffException {
+        if (sharedDiffUrl != null) {
+            return repositoryFileManager.getRevisionDiff(newRevision, sharedDiffUrl);
+        }
+        return repositoryFileManager.getRevisionDiff(newRevision);
+    }
+
+    /**
+     * Calls {@link RepositoryFileManager#getLineDiff(String, String, String)},
+     * hedged if slow calls are.
+     */
+    private int[] getLineDiff(final String oldRevision, final String newRevision, final String fileName) throws IOException, BinaryDiffException {
+        if (hedgedCalls == null) {
+            return repositoryFileManager.getLineDiff(oldRevision, newRevision, fileName);
+        }
+        return (int[]) hedgedCalls.call(new Callable() {
+            public Object call() throws Exception {
+                return repositoryFileManager.getLineDiff(oldRevision, newRevision, fileName);
+            }
+        }, fileName + " r" + newRevision);
+    }
+
+    /**
+     * Calls {@link #getRevisionDiff(String)}, or {@link
+     * RepositoryFileManager#getRevisionDiff(String, String)} for a subtree,
+     * hedged if slow calls are.
+     * 
+     * @param url
+     *            the url of the subtree, null for the whole revision
+     */
+    private Vector getHedgedRevisionDiff(final String newRevision, final String url) throws IOException, BinaryDiffException {
+        if (hedgedCalls == null) {
+            return url == null ? getRevisionDiff(newRevision) : repositoryFileManager.getRevisionDiff(newRevision, url);
+        }
+        return (Vector) hedgedCalls.call(new Callable() {
+            public Object call() throws Exception {
+                return url == null ? getRevisionDiff(newRevision) : repositoryFileManager.getRevisionDiff(newRevision, url);
+            }
+        }, url == null ? "r" + newRevision : url + " r" + newRevision);
+    }
+
+    private final AtomicLong totalTime = new AtomicLong();
 
-    private long groupStart = 0;
+    private volatile long groupStart = 0;
 
-    private int calls = 0;
+    private final AtomicInteger calls = new AtomicInteger();
 
-    private int requiredDiffCalls = 0;
+    // grows as huge revisions are split, while the diffs run.
+    private volatile int requiredDiffCalls = 0;
 
     private String cacheFileName;
 
+    /**
+     * Creates the legacy diff tasks, one per file per revision, as they are
+     * asked for.
+     */
+    private class LegacyDiffTaskIterator implements Iterator {
+        private final Iterator fileBuilders;
+
+        private FileBuilder fileBuilder = null;
+
+        private List revisions = null;
+
+        private int index = 0;
+
+        private DiffTask next = null;
+
+        LegacyDiffTaskIterator(final Iterator fileBuilders) {
+            this.fileBuilders = fileBuilders;
+        }
+
+        public boolean hasNext() {
+            while (next == null) {
+                if (revisions == null || index >= revisions.size()) {
+                    if (!fileBuilders.hasNext()) {
+                        return false;
+                    }
+                    fileBuilder = (FileBuilder) fileBuilders.next();
+                    revisions = fileBuilder.isBinary() || !builder.matchesPatterns(fileBuilder.getName()) ? null : fileBuilder.getRevisions();
+                    index = 0;
+                } else {
+                    next = createTask(index++);
+                }
+            }
+            return true;
+        }
+
+        public Object next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final DiffTask task = next;
+            next = null;
+            return task;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * line diffs are expensive operations. therefore, the result is stored
+         * in the cacheBuilder and eventually persisted in the cache xml file.
+         * the next time the file is read the line diffs (or 0/0 in case of
+         * binary files) are intialized in the RevisionData. this cause
+         * hasNoLines to be false and no task is created.
+         * 
+         * @return the task for the revision at i, or null if there is none.
+         */
+        private DiffTask createTask(final int i) {
+            if (i + 1 < revisions.size() && ((RevisionData) revisions.get(i)).hasNoLines() && !((RevisionData) revisions.get(i)).isDeletion()) {
+                if (((RevisionData) revisions.get(i + 1)).isDeletion()) {
+                    return null;
+                }
+                final String fileName = fileBuilder.getName();
+                final String revNrNew = ((RevisionData) revisions.get(i)).getRevisionNumber();
+                if (cacheBuilder.isBinary(fileName, revNrNew)) {
+                    return null;
+                }
+                final String revNrOld = ((RevisionData) revisions.get(i + 1)).getRevisionNumber();
+                return new DiffTask(fileName, revNrNew, revNrOld, fileBuilder);
+            }
+            return null;
+        }
+    }
+
     protected class DiffTask implements Runnable {
         private String fileName;
         private String newRevision;
@@ -697,23 +1431,31 @@ public class SvnLogfileParser {
             try {
                 // SvnConfigurationOptions.getTaskLogger().log(Thread.currentThread().getName()
                 // + " Starts... now");
+                beginSvnRequest();
                 final long start = System.currentTimeMillis();
-                lineDiff = repositoryFileManager.getLineDiff(oldRevision, newRevision, fileName);
-                end = System.currentTimeMillis();
-                synchronized (cacheBuilder) {
-                    totalTime += (end - start);
+                boolean failed = true;
+                try {
+                    lineDiff = getLineDiff(oldRevision, newRevision, fileName);
+                    failed = false;
+                } catch (final BinaryDiffException e) {
+                    failed = false;
+                    throw e;
+                } finally {
+                    endSvnRequest(System.currentTimeMillis() - start, failed);
                 }
+                end = System.currentTimeMillis();
+                totalTime.addAndGet(end - start);
 
                 SvnConfigurationOptions.getTaskLogger().info(
-                        "svn diff " + (++calls) + "/" + requiredDiffCalls + ": " + fileName + ", r" + oldRevision + " to r" + newRevision + ", +" + lineDiff[0]
+                        "svn diff " + calls.incrementAndGet() + "/" + requiredDiffCalls + ": " + fileName + ", r" + oldRevision + " to r" + newRevision + ", +" + lineDiff[0]
                                 + " -" + lineDiff[1] + " (" + (end - start) + " ms.) " + Thread.currentThread().getName());
             } catch (final BinaryDiffException e) {
-                calls++;
+                calls.incrementAndGet();
                 trackBinaryFile();
                 return;
             } catch (final IOException e) {
                 SvnConfigurationOptions.getTaskLogger()
-                        .error("" + (++calls) + "/" + requiredDiffCalls + " IOException: Unable to obtain diff: " + e.toString());
+                        .error("" + calls.incrementAndGet() + "/" + requiredDiffCalls + " IOException: Unable to obtain diff: " + e.toString());
                 return;
             }
 
@@ -738,12 +1480,17 @@ public class SvnLogfileParser {
         }
 
         protected void performIntermediarySave(long end) {
+            // only the thread that saves waits.
+            if (end - groupStart <= INTERMEDIARY_SAVE_INTERVAL_MS) {
+                return;
+            }
             synchronized (cacheBuilder) {
                 if (end - groupStart > INTERMEDIARY_SAVE_INTERVAL_MS) {
                     final long start = System.currentTimeMillis();
                     XMLUtil.writeXmlFile(cacheBuilder.getDocument(), cacheFileName);
                     groupStart = System.currentTimeMillis();
-                    final double estimateLeftInMs = ((double) totalTime / (double) calls * (requiredDiffCalls - calls) / SvnConfigurationOptions
+                    final int done = calls.get();
+                    final double estimateLeftInMs = ((double) totalTime.get() / (double) done * (requiredDiffCalls - done) / SvnConfigurationOptions
                             .getNumberSvnDiffThreads());
                     end = System.currentTimeMillis();
                     SvnConfigurationOptions.getTaskLogger().info(
@@ -766,11 +1513,38 @@ public class SvnLogfileParser {
     protected class PerRevDiffTask extends DiffTask {
         private Map fileBuilders;
 
+        // the subtree to diff, relative to the working folder; null for all.
+        private String subtree = null;
+
+        private boolean isFileSubtree = false;
+
+        // shared by the subtrees of the revision.
+        private WholeRevisionDiff wholeRevision = null;
+
         public PerRevDiffTask(final String newRevision, final Map fileBuilders) {
             super(newRevision);
             this.fileBuilders = fileBuilders;
         }
 
+        /**
+         * Diffs one subtree of a revision.
+         * 
+         * @param subtree
+         *            the folder or file, relative to the working folder
+         * @param isFile
+         *            true if the subtree is a file
+         * @param wholeRevision
+         *            the diff of the whole revision, for the subtrees that
+         *            cannot be diffed alone
+         */
+        public PerRevDiffTask(final String newRevision, final Map fileBuilders, final String subtree, final boolean isFile,
+                final WholeRevisionDiff wholeRevision) {
+            this(newRevision, fileBuilders);
+            this.subtree = subtree;
+            this.isFileSubtree = isFile;
+            this.wholeRevision = wholeRevision;
+        }
+
         public void run() {
             int[] lineDiff;
             Vector results;
@@ -779,19 +1553,32 @@ public class SvnLogfileParser {
                 // SvnConfigurationOptions.getTaskLogger().log(Thread.currentThread().getName()
                 // + " Starts... now");
                 final long start = System.currentTimeMillis();
-                results = repositoryFileManager.getRevisionDiff(getNewRevision());
-                end = System.currentTimeMillis();
-                synchronized (cacheBuilder) {
-                    totalTime += (end - start);
+                results = prefetcher == null || subtree != null ? null : prefetcher.take(getNewRevision());
+                if (results == null) {
+                    beginSvnRequest();
+                    final long svnStart = System.currentTimeMillis();
+                    boolean failed = true;
+                    try {
+                        results = subtree == null ? getHedgedRevisionDiff(getNewRevision(), null) : getSubtreeDiff();
+                        failed = false;
+                    } finally {
+                        endSvnRequest(System.currentTimeMillis() - svnStart, failed);
+                    }
                 }
+                end = System.currentTimeMillis();
+                totalTime.addAndGet(end - start);
 
                 SvnConfigurationOptions.getTaskLogger().info(
-                        "svn diff " + (++calls) + "/" + requiredDiffCalls + " on r" + getNewRevision() + " (" + (end - start) + " ms.) "
-                                + Thread.currentThread().getName());
+                        "svn diff " + calls.incrementAndGet() + "/" + requiredDiffCalls + " on r" + getNewRevision() + (subtree == null ? "" : " " + subtree)
+                                + " (" + (end - start) + " ms.) " + Thread.currentThread().getName());
 
                 for (int i = 0; i < results.size(); i++) {
                     final Object[] element = (Object[]) results.get(i);
 
+                    if (sharedDiffUrl != null && element.length == SvnDiffUtils.RESULT_SIZE && !toBranchPath(element)) {
+                        continue;
+                    }
+
                     if (element.length == SvnDiffUtils.RESULT_SIZE && fileBuilders.containsKey(element[0].toString())) {
                         setFileName(element[0].toString());
                         setFileBuilder((FileBuilder) fileBuilders.get(getFileName()));
@@ -817,11 +1604,217 @@ public class SvnLogfileParser {
                 return;
             } catch (final IOException e) {
                 SvnConfigurationOptions.getTaskLogger()
-                        .error("" + (++calls) + "/" + requiredDiffCalls + " IOException: Unable to obtain diff: " + e.toString());
+                        .error("" + calls.incrementAndGet() + "/" + requiredDiffCalls + " IOException: Unable to obtain diff: " + e.toString());
                 return;
             }
 
             performIntermediarySave(end);
         }
+
+        /**
+         * Diffs the subtree at its url, in its current location. A subtree
+         * that is gone since the revision cannot be diffed that way: the whole
+         * revision is diffed instead, once for all such subtrees of the
+         * revision, and the results under the subtree kept.
+         * 
+         * @return the results, with paths relative to the working folder.
+         */
+        private Vector getSubtreeDiff() throws IOException, BinaryDiffException {
+            Vector results;
+            try {
+                results = getHedgedRevisionDiff(getNewRevision(), repositoryFileManager.relativePathToUrl(subtree));
+            } catch (final IOException e) {
+                SvnConfigurationOptions.getTaskLogger().info("Unable to diff " + subtree + " on r" + getNewRevision() + "; diffing the whole revision. " + e);
+                results = wholeRevision.get();
+                final Vector kept = new Vector();
+                for (int i = 0; i < results.size(); i++) {
+                    final String name = ((Object[]) results.get(i))[0].toString();
+                    if (name.equals(subtree) || name.startsWith(subtree + "/")) {
+                        kept.add(results.get(i));
+                    }
+                }
+                return kept;
+            }
+            toWorkingFolderPaths(results);
+            return results;
+        }
+
+        /**
+         * Converts the filenames of a subtree diff, relative to the url of the
+         * subtree, to paths relative to the working folder. The diff of a
+         * file names the file alone.
+         * 
+         * @param results
+         *            the diff results, updated in place
+         */
+        private void toWorkingFolderPaths(final Vector results) {
+            final String baseName = subtree.substring(subtree.lastIndexOf('/') + 1);
+            for (int i = 0; i < results.size(); i++) {
+                final Object[] element = (Object[]) results.get(i);
+                if (element.length != SvnDiffUtils.RESULT_SIZE) {
+                    continue;
+                }
+                final String name = element[0].toString();
+                if (isFileSubtree && results.size() == 1 && (name.equals(baseName) || name.endsWith("/" + baseName))) {
+                    element[0] = subtree;
+                } else {
+                    element[0] = subtree + "/" + name;
+                }
+            }
+        }
+
+        /**
+         * Converts the filename of a diff taken at the shared url to a path
+         * relative to this branch. Results for files that are not on this
+         * branch are saved in the cache for the other branches.
+         * 
+         * @param element
+         *            the diff result, updated in place
+         * @return true if the file is on this branch.
+         */
+        private boolean toBranchPath(final Object[] element) {
+            if (sharedDiffPath == null) {
+                sharedDiffPath = repositoryFileManager.urlToAbsolutePath(sharedDiffUrl);
+                if (sharedDiffPath.endsWith("/")) {
+                    sharedDiffPath = sharedDiffPath.substring(0, sharedDiffPath.length() - 1);
+                }
+            }
+            final String absolutePath = sharedDiffPath + "/" + element[0].toString();
+            final String relativePath = repositoryFileManager.absoluteToRelativePath(absolutePath);
+            if (relativePath != null) {
+                element[0] = relativePath;
+                return true;
+            }
+
+            final int[] lineDiff = (int[]) element[1];
+            if (lineDiff[0] != -1 && lineDiff[1] != -1) {
+                cacheBuilder.newAbsoluteRevision(absolutePath, getNewRevision(), lineDiff[0] + "", lineDiff[1] + "", ((Boolean) element[2]).booleanValue());
+            }
+            return false;
+        }
+    }
+
+    /**
+     * The diff of a whole split revision, taken by the first of its subtrees
+     * that fails, and handed to the others that fail, so that the revision is
+     * diffed whole at most once.
+     */
+    private final class WholeRevisionDiff {
+        private final String revision;
+
+        private boolean isTaken = false;
+
+        private Vector results;
+
+        private IOException ioFailure;
+
+        private BinaryDiffException binaryFailure;
+
+        private WholeRevisionDiff(final String revision) {
+            this.revision = revision;
+        }
+
+        /**
+         * Diffs the revision on the first call; the other calls wait for it
+         * and get the same results, or the same failure.
+         * 
+         * @return the results, with paths relative to the working folder.
+         */
+        synchronized Vector get() throws IOException, BinaryDiffException {
+            if (!isTaken) {
+                isTaken = true;
+                try {
+                    results = getHedgedRevisionDiff(revision, null);
+                } catch (final IOException e) {
+                    ioFailure = e;
+                } catch (final BinaryDiffException e) {
+                    binaryFailure = e;
+                }
+            }
+            if (ioFailure != null) {
+                throw ioFailure;
+            }
+            if (binaryFailure != null) {
+                throw binaryFailure;
+            }
+            if (results == null) {
+                throw new IOException("The diff of the whole r" + revision + " failed.");
+            }
+            return results;
+        }
+    }
+
+    /**
+     * A folder or file in the tree of all paths found in the log.
+     */
+    private static final class PathNode {
+        private final Map children = new HashMap();
+
+        private FileBuilder fileBuilder;
+
+        private FolderActions[] parentActions;
+
+        private PathNode getDescendant(final String path) {
+            PathNode node = this;
+            int start = 0;
+            int end;
+            do {
+                end = path.indexOf('/', start);
+                final String name = end < 0 ? path.substring(start) : path.substring(start, end);
+                PathNode child = (PathNode) node.children.get(name);
+                if (child == null) {
+                    child = new PathNode();
+                    node.children.put(name, child);
+                }
+                node = child;
+                start = end + 1;
+            } while (end >= 0);
+            return node;
+        }
+    }
+
+    /**
+     * The additions and deletions of a folder, newest first, with at most one
+     * action per revision.
+     */
+    private static final class FolderActions {
+        private final String name;
+
+        private final int[] revisions;
+
+        private final RevisionData[] data;
+
+        private int size;
+
+        private FolderActions(final String name, final List folderRevisions) {
+            this.name = name;
+            final int[] numbers = toRevisionNumbers(folderRevisions);
+            revisions = new int[numbers.length];
+            data = new RevisionData[numbers.length];
+            for (int i = 0; i < numbers.length; i++) {
+                final RevisionData action = (RevisionData) folderRevisions.get(i);
+                // ignore modifications to folders
+                if (numbers[i] >= 0 && (action.isCreationOrRestore() || action.isDeletion()) && (size == 0 || revisions[size - 1] != numbers[i])) {
+                    revisions[size] = numbers[i];
+                    data[size++] = action;
+                }
+            }
+        }
+
+        /**
+         * Parses the revision numbers of a list of revisions once. Revisions
+         * that are not numbers are given -1.
+         */
+        private static int[] toRevisionNumbers(final List revisionData) {
+            final int[] result = new int[revisionData.size()];
+            for (int i = 0; i < result.length; i++) {
+                try {
+                    result[i] = Integer.parseInt(((RevisionData) revisionData.get(i)).getRevisionNumber());
+                } catch (final NumberFormatException e) {
+                    result[i] = -1;
+                }
+            }
+            return result;
+        }
     }
 }
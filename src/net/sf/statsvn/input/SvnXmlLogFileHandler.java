@@ -4,6 +4,7 @@ import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 
 import net.sf.statsvn.output.SvnConfigurationOptions;
 import net.sf.statsvn.util.XMLUtil;
@@ -60,12 +61,18 @@ public class SvnXmlLogFileHandler extends DefaultHandler {
 
 	private String copyfromPath = "";
 
+	private String textMods;
+
 	private final RepositoryFileManager repositoryFileManager;
 
 	private final HashMap tagsMap = new HashMap();
 
 	private final HashMap tagsDateMap = new HashMap();
 
+	private CommitMessageStore messageStore;
+
+	private int messageCount = 0;
+
 	/**
 	 * Default constructor.
 	 * 
@@ -79,6 +86,22 @@ public class SvnXmlLogFileHandler extends DefaultHandler {
 		this.repositoryFileManager = repositoryFileManager;
 	}
 
+	/**
+	 * Constructor that keeps commit messages in the log file rather than in
+	 * memory.
+	 * 
+	 * @param builder
+	 *            where to send the information
+	 * @param repositoryFileManager
+	 *            the repository file manager needed to obtain some information.
+	 * @param messageStore
+	 *            the memory-mapped log file, used to read back commit messages.
+	 */
+	public SvnXmlLogFileHandler(final SvnLogBuilder builder, final RepositoryFileManager repositoryFileManager, final CommitMessageStore messageStore) {
+		this(builder, repositoryFileManager);
+		this.messageStore = messageStore;
+	}
+
 	/**
 	 * Builds the string that was read; default implementation can invoke this
 	 * function multiple times while reading the data.
@@ -192,7 +215,7 @@ public class SvnXmlLogFileHandler extends DefaultHandler {
 				continue; // skip files that are not on this branch
 			}
 			final RevisionData revisionData = (RevisionData) currentRevisions.get(i);
-			revisionData.setComment(currentRevisionData.getComment());
+			revisionData.copyCommentFrom(currentRevisionData);
 			revisionData.setDate(currentRevisionData.getDate());
 			revisionData.setLoginName(currentRevisionData.getLoginName());
 			final String currentFilename = currentFilenames.get(i).toString();
@@ -201,6 +224,21 @@ public class SvnXmlLogFileHandler extends DefaultHandler {
 			builder.buildFile(currentFilename, isBinary, revisionData.isDeletion(), tagsMap, tagsDateMap);
 			builder.buildRevision(revisionData);
 		}
+		logEntryBuilt(currentFilenames, currentRevisions);
+	}
+
+	/**
+	 * Called at the end of each log entry, once its files and revisions have
+	 * been built. Does nothing; lets a parser act on a revision before the
+	 * whole log is read.
+	 * 
+	 * @param filenames
+	 *            the relative filenames of the entry, null for the paths that
+	 *            are not on the branch
+	 * @param revisions
+	 *            the {@link RevisionData} of each filename
+	 */
+	protected void logEntryBuilt(final List filenames, final List revisions) {
 	}
 
 	/**
@@ -211,6 +249,18 @@ public class SvnXmlLogFileHandler extends DefaultHandler {
 	 */
 	private void endMsg() throws SAXException {
 		checkLastElement(LOGENTRY);
+		if (messageStore != null) {
+			final CommitMessageStore.Handle handle = messageStore.getMessage(messageCount++);
+			// UTF-8 never uses fewer bytes than chars; anything else means we
+			// lost track of the msg elements in the log file.
+			if (handle != null && handle.getLength() >= stringData.length()) {
+				currentRevisionData.setCommentHandle(handle);
+				return;
+			}
+			SvnConfigurationOptions.getTaskLogger().info("Unable to locate commit message of r" + currentRevisionData.getRevisionNumber()
+			        + " in the log file; keeping commit messages in memory.");
+			messageStore = null;
+		}
 		currentRevisionData.setComment(stringData);
 	}
 
@@ -253,6 +303,7 @@ public class SvnXmlLogFileHandler extends DefaultHandler {
 
 		data.setCopyfromPath(copyfromPath);
 		data.setCopyfromRevision(copyfromRev);
+		data.setTextMods(textMods);
 
 		currentRevisions.add(data);
 		currentFilenames.add(filename);
@@ -375,6 +426,7 @@ public class SvnXmlLogFileHandler extends DefaultHandler {
 
 		copyfromPath = attributes.getValue("copyfrom-path");
 		copyfromRev = attributes.getValue("copyfrom-rev");
+		textMods = attributes.getValue("text-mods");
 
 	}
 
@@ -85,6 +85,11 @@ public class SvnCommandLineParser extends CommandLineParser {
 				throw new ConfigurationException("Missing argument for -tags-dir");
 			}
 			SvnConfigurationOptions.setTagsDirectory(popNextArg());
+		} else if (s.equals("branches")) {
+			if (isArgsEmpty()) {
+				throw new ConfigurationException("Missing argument for -branches");
+			}
+			SvnConfigurationOptions.setBranchDirectories(popNextArg());
 		} else if (s.equals("dump")) {
 			SvnConfigurationOptions.setDumpContent(true);
 		} else if (s.equals("anonymize")) {
@@ -93,6 +98,63 @@ public class SvnCommandLineParser extends CommandLineParser {
             SvnConfigurationOptions.setUsingSvnKit(true);
 		} else if (s.equals("force-legacy-diff")) {
 			SvnConfigurationOptions.setLegacyDiff(true);
+		} else if (s.equals("zero-context-diff")) {
+			SvnConfigurationOptions.setZeroContextDiff(true);
+		} else if (s.equals("log-diff")) {
+			SvnConfigurationOptions.setLogWithDiff(true);
+		} else if (s.equals("copies-as-moves")) {
+			SvnConfigurationOptions.setCopiesAsMoves(true);
+		} else if (s.equals("classify-binary")) {
+			SvnConfigurationOptions.setClassifyBinary(true);
+		} else if (s.equals("binary-sample")) {
+			if (isArgsEmpty()) {
+				throw new ConfigurationException("Missing argument for -binary-sample");
+			}
+			SvnConfigurationOptions.setClassifyBinary(true);
+			SvnConfigurationOptions.setBinaryVerificationSample(Integer.parseInt(popNextArg()));
+		} else if (s.equals("pipelined-diff")) {
+			SvnConfigurationOptions.setPipelinedDiff(true);
+		} else if (s.equals("svn-timeout")) {
+			if (isArgsEmpty()) {
+				throw new ConfigurationException("Missing argument for -svn-timeout");
+			}
+			SvnConfigurationOptions.setSvnTimeout(Long.parseLong(popNextArg()) * 1000);
+		} else if (s.equals("virtual-threads")) {
+			SvnConfigurationOptions.setVirtualThreads(true);
+		} else if (s.equals("adaptive-concurrency")) {
+			SvnConfigurationOptions.setAdaptiveConcurrency(true);
+		} else if (s.equals("min-threads")) {
+			if (isArgsEmpty()) {
+				throw new ConfigurationException("Missing argument for -min-threads");
+			}
+			SvnConfigurationOptions.setMinNumberSvnDiffThreads(Integer.parseInt(popNextArg()));
+		} else if (s.equals("hedged-diff")) {
+			SvnConfigurationOptions.setHedgedDiff(true);
+		} else if (s.equals("split-revisions")) {
+			if (isArgsEmpty()) {
+				throw new ConfigurationException("Missing argument for -split-revisions");
+			}
+			SvnConfigurationOptions.setSplitRevisionPaths(Integer.parseInt(popNextArg()));
+		} else if (s.equals("svn-rate")) {
+			if (isArgsEmpty()) {
+				throw new ConfigurationException("Missing argument for -svn-rate");
+			}
+			SvnConfigurationOptions.setSvnRequestRate(Double.parseDouble(popNextArg()));
+		} else if (s.equals("svn-bandwidth")) {
+			if (isArgsEmpty()) {
+				throw new ConfigurationException("Missing argument for -svn-bandwidth");
+			}
+			SvnConfigurationOptions.setSvnByteRate(Double.parseDouble(popNextArg()));
+		} else if (s.equals("svn-rate-schedule")) {
+			if (isArgsEmpty()) {
+				throw new ConfigurationException("Missing argument for -svn-rate-schedule");
+			}
+			SvnConfigurationOptions.setSvnRateSchedule(popNextArg());
+		} else if (s.equals("svndump")) {
+			if (isArgsEmpty()) {
+				throw new ConfigurationException("Missing argument for -svndump");
+			}
+			SvnConfigurationOptions.setSvnDumpPath(popNextArg());
 		} else {
 			return false;
 		}
@@ -105,7 +167,10 @@ public class SvnCommandLineParser extends CommandLineParser {
 	 * @see net.sf.statcvs.output.CommandLineParser#checkForRequiredArgs()
 	 */
 	protected void checkForRequiredArgs() throws ConfigurationException {
-		super.checkForRequiredArgs();
+		// a dump needs no checked out directory.
+		if (SvnConfigurationOptions.getSvnDumpPath() == null || getArgCount() != 1) {
+			super.checkForRequiredArgs();
+		}
 		if (!setCacheDir) {
 			SvnConfigurationOptions.setCacheDirToDefault();
 		}
@@ -23,6 +23,8 @@
 package net.sf.statsvn.output;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 import net.sf.statcvs.output.ConfigurationException;
 import net.sf.statcvs.output.ConfigurationOptions;
@@ -75,6 +77,41 @@ public final class SvnConfigurationOptions {
 
     private static boolean useSvnKit = false;
 
+	// read by the svn diff threads, turned off by the first that fails.
+	private static volatile boolean zeroContextDiff = false;
+
+	private static boolean logWithDiff = false;
+
+	private static String svnDumpPath = null;
+
+	private static boolean copiesAsMoves = false;
+
+	private static boolean classifyBinary = false;
+
+	private static int binaryVerificationSample = 0;
+
+	private static boolean pipelinedDiff = false;
+
+	private static long svnTimeout = 0;
+
+	private static boolean virtualThreads = false;
+
+	private static boolean adaptiveConcurrency = false;
+
+	private static int minNumberSvnDiffThreads = 1;
+
+	private static boolean hedgedDiff = false;
+
+	private static int splitRevisionPaths = 0;
+
+	private static double svnRequestRate = 0;
+
+	private static double svnByteRate = 0;
+
+	private static List svnRateSchedule = new ArrayList();
+
+	private static final List branchDirectories = new ArrayList();
+
 	/**
 	 * A utility class (only static methods) should be final and have a private
 	 * constructor.
@@ -252,6 +289,361 @@ public final class SvnConfigurationOptions {
 		useLegacyDiff = isLegacy;
 	}
 	
+	/**
+	 * Should svn diff be asked for diffs without context lines, counted from
+	 * their hunk headers?
+	 * 
+	 * @return true if zero-context diffs should be used.
+	 */
+	public static boolean isZeroContextDiff() {
+		return zeroContextDiff;
+	}
+
+	/**
+	 * Should svn diff be asked for diffs without context lines, counted from
+	 * their hunk headers? Requires svn 1.9 or later; turned off if svn does
+	 * not support it.
+	 * 
+	 * @param isZeroContext
+	 *            true if zero-context diffs should be used.
+	 */
+	public static void setZeroContextDiff(final boolean isZeroContext) {
+		zeroContextDiff = isZeroContext;
+	}
+
+	/**
+	 * Is the logfile the text output of <tt>svn log -v --diff</tt>, which
+	 * holds the diff of each revision after its log entry?
+	 * 
+	 * @return true if the logfile includes the diffs.
+	 */
+	public static boolean isLogWithDiff() {
+		return logWithDiff;
+	}
+
+	/**
+	 * Is the logfile the text output of <tt>svn log -v --diff</tt>? Requires
+	 * svn 1.7 or later. The line counts are then read from the logfile
+	 * instead of being queried with svn diff.
+	 * 
+	 * @param isLogWithDiff
+	 *            true if the logfile includes the diffs.
+	 */
+	public static void setLogWithDiff(final boolean isLogWithDiff) {
+		logWithDiff = isLogWithDiff;
+	}
+
+	/**
+	 * Is the logfile a repository dump? If so, the folder of the repository
+	 * the report is about.
+	 * 
+	 * @return the absolute path of the folder in the repository, or null if
+	 *         the logfile is an svn log.
+	 */
+	public static String getSvnDumpPath() {
+		return svnDumpPath;
+	}
+
+	/**
+	 * The logfile is the output of <tt>svnadmin dump</tt>, possibly
+	 * compressed with gzip. The log, the content of the files and the line
+	 * counts are then all read from the dump, without a working copy.
+	 * 
+	 * @param path
+	 *            the absolute path of the folder in the repository the report
+	 *            is about, for example /trunk, or / for the whole repository.
+	 */
+	public static void setSvnDumpPath(final String path) {
+		svnDumpPath = path;
+	}
+
+	/**
+	 * Are copies that were not modified recorded as moves, without a diff?
+	 * 
+	 * @return true if copies are resolved without svn diff.
+	 */
+	public static boolean isCopiesAsMoves() {
+		return copiesAsMoves;
+	}
+
+	/**
+	 * Records the copies that were not modified by their revision as moves,
+	 * with 0 lines added and removed, instead of diffing them. Their binary
+	 * status is taken from the cache entry of the source of the copy.
+	 * 
+	 * @param isCopiesAsMoves
+	 *            true to resolve copies without svn diff.
+	 */
+	public static void setCopiesAsMoves(final boolean isCopiesAsMoves) {
+		copiesAsMoves = isCopiesAsMoves;
+	}
+
+	/**
+	 * Are likely binary file revisions marked before the svn diffs?
+	 * 
+	 * @return true if binary revisions are guessed.
+	 */
+	public static boolean isClassifyBinary() {
+		return classifyBinary;
+	}
+
+	/**
+	 * Marks the revisions of files that are likely binary with 0 lines added
+	 * and removed before the svn diffs, instead of finding out from a failed
+	 * diff. The guess is made for files that are no longer in the working
+	 * copy, from their extension, their history in the cache and the source of
+	 * their copy.
+	 * 
+	 * @param isClassifyBinary
+	 *            true to guess binary revisions.
+	 */
+	public static void setClassifyBinary(final boolean isClassifyBinary) {
+		classifyBinary = isClassifyBinary;
+	}
+
+	/**
+	 * @return the number of files guessed binary that are checked with one
+	 *         svn diff.
+	 */
+	public static int getBinaryVerificationSample() {
+		return binaryVerificationSample;
+	}
+
+	/**
+	 * Checks the guess of {@link #setClassifyBinary(boolean)} with an svn diff
+	 * of one revision of the given number of files. A file found to be text is
+	 * diffed as usual.
+	 * 
+	 * @param sample
+	 *            the number of files to check, 0 for none.
+	 */
+	public static void setBinaryVerificationSample(final int sample) {
+		binaryVerificationSample = sample;
+	}
+
+	/**
+	 * Are svn diffs fetched while the log is parsed?
+	 * 
+	 * @return true if the diffs start during the parse.
+	 */
+	public static boolean isPipelinedDiff() {
+		return pipelinedDiff;
+	}
+
+	/**
+	 * Reads the cache before the log and starts the per revision svn diffs of
+	 * the revisions missing from it as their log entries are parsed. Has no
+	 * effect with the legacy diff.
+	 * 
+	 * @param isPipelined
+	 *            true to fetch diffs during the parse.
+	 */
+	public static void setPipelinedDiff(final boolean isPipelined) {
+		pipelinedDiff = isPipelined;
+	}
+
+	/**
+	 * @return the time after which an svn call is killed, in ms; 0 if svn
+	 *         calls never time out.
+	 */
+	public static long getSvnTimeout() {
+		return svnTimeout;
+	}
+
+	/**
+	 * Kills the svn command line calls that take longer than the given time,
+	 * and reports them as failed.
+	 * 
+	 * @param timeout
+	 *            the time in ms, 0 for no limit.
+	 */
+	public static void setSvnTimeout(final long timeout) {
+		svnTimeout = timeout;
+	}
+
+	/**
+	 * Does each svn diff run on its own virtual thread?
+	 * 
+	 * @return true if virtual threads are requested.
+	 */
+	public static boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	/**
+	 * Runs each svn diff on its own virtual thread (Java 21 and later), with
+	 * {@link #getNumberSvnDiffThreads()} limiting the svn calls made at the
+	 * same time rather than the number of threads.
+	 * 
+	 * @param isVirtual
+	 *            true to use virtual threads.
+	 */
+	public static void setVirtualThreads(final boolean isVirtual) {
+		virtualThreads = isVirtual;
+	}
+
+	/**
+	 * Does the number of concurrent svn diff calls adapt to the server?
+	 * 
+	 * @return true if the concurrency is adaptive.
+	 */
+	public static boolean isAdaptiveConcurrency() {
+		return adaptiveConcurrency;
+	}
+
+	/**
+	 * Adapts the number of concurrent svn diff calls during the run, between
+	 * {@link #getMinNumberSvnDiffThreads()} and {@link
+	 * #getNumberSvnDiffThreads()}: more while the calls succeed at a steady
+	 * latency, fewer when they fail or slow down.
+	 * 
+	 * @param isAdaptive
+	 *            true to adapt the concurrency.
+	 */
+	public static void setAdaptiveConcurrency(final boolean isAdaptive) {
+		adaptiveConcurrency = isAdaptive;
+	}
+
+	/**
+	 * @return the lowest number of concurrent svn diff calls of the adaptive
+	 *         concurrency.
+	 */
+	public static int getMinNumberSvnDiffThreads() {
+		return minNumberSvnDiffThreads;
+	}
+
+	/**
+	 * @param minNumber
+	 *            the lowest number of concurrent svn diff calls of the
+	 *            adaptive concurrency.
+	 */
+	public static void setMinNumberSvnDiffThreads(final int minNumber) {
+		minNumberSvnDiffThreads = minNumber;
+	}
+
+	/**
+	 * Is a slow svn diff call issued a second time?
+	 * 
+	 * @return true if slow calls are hedged.
+	 */
+	public static boolean isHedgedDiff() {
+		return hedgedDiff;
+	}
+
+	/**
+	 * Issues an svn diff call a second time when it runs well past the
+	 * latency of most calls so far; the first result wins and the other call
+	 * is killed.
+	 * 
+	 * @param isHedged
+	 *            true to hedge slow calls.
+	 */
+	public static void setHedgedDiff(final boolean isHedged) {
+		hedgedDiff = isHedged;
+	}
+
+	/**
+	 * @return the number of changed paths above which the svn diff of a
+	 *         revision is split by subtree; 0 if revisions are not split.
+	 */
+	public static int getSplitRevisionPaths() {
+		return splitRevisionPaths;
+	}
+
+	/**
+	 * Splits the svn diff of a revision that changes more paths than this
+	 * into concurrent diffs of its subtrees.
+	 * 
+	 * @param maxPaths
+	 *            the number of changed paths; 0 not to split revisions.
+	 */
+	public static void setSplitRevisionPaths(final int maxPaths) {
+		splitRevisionPaths = maxPaths;
+	}
+
+	/**
+	 * @return the most svn diff calls per second; 0 if not limited.
+	 */
+	public static double getSvnRequestRate() {
+		return svnRequestRate;
+	}
+
+	/**
+	 * @param requestsPerSecond
+	 *            the most svn diff calls per second; 0 not to limit them.
+	 */
+	public static void setSvnRequestRate(final double requestsPerSecond) {
+		svnRequestRate = requestsPerSecond;
+	}
+
+	/**
+	 * @return the most bytes of svn diff output per second; 0 if not
+	 *         limited.
+	 */
+	public static double getSvnByteRate() {
+		return svnByteRate;
+	}
+
+	/**
+	 * @param bytesPerSecond
+	 *            the most bytes of svn diff output per second; 0 not to limit
+	 *            them.
+	 */
+	public static void setSvnByteRate(final double bytesPerSecond) {
+		svnByteRate = bytesPerSecond;
+	}
+
+	/**
+	 * @return the rates that replace {@link #getSvnRequestRate()} and {@link
+	 *         #getSvnByteRate()} during some hours of the day, as double[4]
+	 *         arrays of [from hour, to hour, requests per second, bytes per
+	 *         second].
+	 */
+	public static List getSvnRateSchedule() {
+		return svnRateSchedule;
+	}
+
+	/**
+	 * Sets the rates of some hours of the day, such as
+	 * <code>9-18=2/500000,18-9=0/0</code>: 2 calls and 500000 bytes per
+	 * second from 9:00 to 18:00, and no limit from 18:00 to 9:00. A window
+	 * ends before its last hour, and may go past midnight. A rate of 0 is not
+	 * limited. The first window that contains the hour applies; outside of
+	 * all windows, the rates of {@link #getSvnRequestRate()} and {@link
+	 * #getSvnByteRate()} apply.
+	 * 
+	 * @param schedule
+	 *            the windows, separated by commas
+	 * @throws ConfigurationException
+	 *             if the schedule cannot be read.
+	 */
+	public static void setSvnRateSchedule(final String schedule) throws ConfigurationException {
+		final List windows = new ArrayList();
+		final String[] specs = schedule.split(",");
+		for (int i = 0; i < specs.length; i++) {
+			final String spec = specs[i].trim();
+			final int dash = spec.indexOf('-');
+			final int equals = spec.indexOf('=');
+			final int slash = spec.indexOf('/');
+			if (dash <= 0 || equals <= dash || slash <= equals) {
+				throw new ConfigurationException("Invalid svn rate schedule: " + spec + " (expected FROM-TO=REQUESTS/BYTES)");
+			}
+			try {
+				final double from = Integer.parseInt(spec.substring(0, dash).trim());
+				final double to = Integer.parseInt(spec.substring(dash + 1, equals).trim());
+				final double requests = Double.parseDouble(spec.substring(equals + 1, slash).trim());
+				final double bytes = Double.parseDouble(spec.substring(slash + 1).trim());
+				if (from < 0 || from > 24 || to < 0 || to > 24) {
+					throw new ConfigurationException("Invalid hours in svn rate schedule: " + spec);
+				}
+				windows.add(new double[] { from, to, requests, bytes });
+			} catch (final NumberFormatException e) {
+				throw new ConfigurationException("Invalid svn rate schedule: " + spec + " (" + e.getMessage() + ")");
+			}
+		}
+		svnRateSchedule = windows;
+	}
+
 	 /**
      * Should we use svnkit to query the repository
      * 
@@ -270,23 +662,60 @@ public final class SvnConfigurationOptions {
         useSvnKit = isSvnKit;
     }
 
+	/**
+	 * Working copies of other branches to report on, from the same log.
+	 * 
+	 * @return the list of directories (String).
+	 */
+	public static List getBranchDirectories() {
+		return branchDirectories;
+	}
+
+	/**
+	 * Adds the working copies of other branches to report on, from the same
+	 * log.
+	 * 
+	 * @param directories
+	 *            a list of directories separated by ;
+	 */
+	public static void setBranchDirectories(final String directories) {
+		branchDirectories.clear();
+		final String[] dirs = directories.split(";");
+		for (int i = 0; i < dirs.length; i++) {
+			if (dirs[i].trim().length() > 0) {
+				branchDirectories.add(dirs[i].trim());
+			}
+		}
+	}
+
 	public static ISvnProcessor getProcessor()
 	{
 	    if (processor==null) {
-	        if (isUsingSVNKit()) {
-	            try {
-	            processor = new SvnKitProcessor();
-	            } catch (NoClassDefFoundError ex)
-	            {
-	                getTaskLogger().error("Unable to find svnkit.jar and/or jna.jar in the same folder as statsvn.jar. Please copy these files and try again.");
-	                throw ex;
-	            }
-	        }
-	        else
-	            processor = new SvnCommandLineProcessor();
+	        processor = createProcessor(null);
 	    }
 	    return processor;
 	        
 	}
 
+	/**
+	 * Creates a processor bound to a particular working copy.
+	 * 
+	 * @param checkoutDirectory the working copy, or null for the checked out directory. 
+	 * @return a new processor
+	 */
+	public static ISvnProcessor createProcessor(final File checkoutDirectory)
+	{
+	    if (isUsingSVNKit()) {
+	        try {
+	            return checkoutDirectory == null ? new SvnKitProcessor() : new SvnKitProcessor(checkoutDirectory);
+	        } catch (NoClassDefFoundError ex)
+	        {
+	            getTaskLogger().error("Unable to find svnkit.jar and/or jna.jar in the same folder as statsvn.jar. Please copy these files and try again.");
+	            throw ex;
+	        }
+	    }
+	    else
+	        return checkoutDirectory == null ? new SvnCommandLineProcessor() : new SvnCommandLineProcessor(checkoutDirectory);
+	}
+
 }
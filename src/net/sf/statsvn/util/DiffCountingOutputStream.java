@@ -0,0 +1,51 @@
+package net.sf.statsvn.util;
+
+import java.io.OutputStream;
+
+/**
+ * <p>
+ * Counts the lines of a diff as it is written, for diff engines such as
+ * svnkit that write their output to an <tt>OutputStream</tt>. Each block
+ * written goes straight to a {@link DiffLineCounter}: the diff is never held
+ * in memory, whatever its size.
+ * </p>
+ *
+ * <p>
+ * Closing the stream ends the counting.
+ * </p>
+ */
+public class DiffCountingOutputStream extends OutputStream {
+    private final DiffLineCounter counter;
+
+    private final byte[] single = new byte[1];
+
+    private boolean closed;
+
+    /**
+     * @param counter
+     *            the counter that receives the diff.
+     */
+    public DiffCountingOutputStream(final DiffLineCounter counter) {
+        this.counter = counter;
+    }
+
+    public void write(final int b) {
+        single[0] = (byte) b;
+        counter.count(single, 0, 1);
+    }
+
+    public void write(final byte[] b, final int off, final int len) {
+        counter.count(b, off, len);
+    }
+
+    /**
+     * Ends the counting; the counts of the {@link DiffLineCounter} are then
+     * final.
+     */
+    public void close() {
+        if (!closed) {
+            closed = true;
+            counter.finish();
+        }
+    }
+}
@@ -0,0 +1,438 @@
+package net.sf.statsvn.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Vector;
+
+/**
+ * <p>
+ * Counts the lines added and removed in the output of svn diff while it is
+ * being read. The raw bytes are scanned, so the content of the files is never
+ * decoded and their encoding does not matter. Only the first bytes of each
+ * line are looked at, and the only text decoded is the filename of each
+ * <tt>Index:</tt> section, in the platform charset used by svn.
+ * </p>
+ *
+ * <p>
+ * The counting rules are those StatSVN always used: a line starting with
+ * <tt>+</tt> is an addition and a line starting with <tt>-</tt> is a
+ * removal. The counts start at -1 so that the <tt>+++</tt> and <tt>---</tt>
+ * headers are not counted. A diff with property changes but without content
+ * changes counts as 0/0, and a binary file stops the counting of its
+ * section.
+ * </p>
+ *
+ * <p>
+ * For diffs made without context lines (<tt>svn diff -x -U0</tt>), the
+ * counter can take the counts from the <tt>@@ -a,b +c,d @@</tt> hunk headers
+ * instead: the body of each hunk is then skipped, only checking that its
+ * lines are the announced additions and removals. If they are not, the diff
+ * is reported as inconsistent and should be counted again with context.
+ * </p>
+ */
+public class DiffLineCounter {
+    private static final int BUFFER_SIZE = 65536;
+
+    private static final byte[] INDEX_MARKER = toAscii(SvnDiffUtils.INDEX_MARKER);
+
+    private static final byte[] PROPERTY_CHANGE = toAscii(SvnDiffUtils.PROPERTY_CHANGE);
+
+    private static final byte[] PROPERTY_NAME = toAscii(SvnDiffUtils.PROPERTY_NAME);
+
+    private static final byte[] BINARY_TYPE = toAscii(SvnDiffUtils.BINARY_TYPE);
+
+    private static final byte[] HUNK_MARKER = toAscii("@@ -");
+
+    private static final byte[] PROPERTY_HUNK_MARKER = toAscii("## -");
+
+    // one read buffer per thread, reused from one diff to the next.
+    private static final ThreadLocal BUFFERS = new ThreadLocal() {
+        protected Object initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    private final Vector answer;
+
+    private final boolean hunkCounts;
+
+    // the marker the current line may still be matching, if any.
+    private byte[] candidate;
+
+    private int matched;
+
+    private boolean inLine;
+
+    private boolean skipLine;
+
+    private boolean previousWasCr;
+
+    // filename of the current section, null until the first Index: line.
+    private String currFile;
+
+    // removed from the start of the filenames, if not null.
+    private String pathPrefix;
+
+    // the end of an Index: or hunk header line, once its marker is found.
+    private byte[] lineText = new byte[256];
+
+    private int lineTextLength;
+
+    private byte[] collecting;
+
+    private int hunkPosition;
+
+    // lines left in the body of the current hunk.
+    private int bodyLines;
+
+    private boolean inHunks;
+
+    private boolean consistent = true;
+
+    private int lineNumber;
+
+    private int linesAdded;
+
+    private int linesRemoved;
+
+    private boolean propertyChange;
+
+    private boolean binary;
+
+    /**
+     * Creates a counter for the diff of a single file.
+     */
+    public DiffLineCounter() {
+        this(null);
+    }
+
+    /**
+     * Creates a counter for the diff of several files, one section per
+     * <tt>Index:</tt> line.
+     *
+     * @param answer
+     *            receives one result per file: an <tt>Object[]</tt> of
+     *            {filename, int[] {lines added, lines removed}, Boolean
+     *            isBinary}.
+     */
+    public DiffLineCounter(final Vector answer) {
+        this(answer, false);
+    }
+
+    /**
+     * Creates a counter for a diff made without context lines.
+     *
+     * @param answer
+     *            see {@link #DiffLineCounter(Vector)}, null for the diff of a
+     *            single file.
+     * @param hunkCounts
+     *            true to take the counts from the hunk headers.
+     */
+    public DiffLineCounter(final Vector answer, final boolean hunkCounts) {
+        this.answer = answer;
+        this.hunkCounts = hunkCounts;
+        resetSection();
+    }
+
+    /**
+     * Removes a prefix from the filenames of the <tt>Index:</tt> lines, as
+     * they are read, for diff engines that print absolute paths.
+     *
+     * @param prefix
+     *            the prefix, such as the path of the working copy, followed
+     *            by a /
+     */
+    public void setPathPrefix(final String prefix) {
+        this.pathPrefix = prefix;
+    }
+
+    /**
+     * Reads and counts the whole diff.
+     *
+     * @param diffStream
+     *            the output of svn diff.
+     * @throws IOException
+     *             problem reading the stream
+     */
+    public void count(final InputStream diffStream) throws IOException {
+        final byte[] buffer = (byte[]) BUFFERS.get();
+        int read;
+        while ((read = diffStream.read(buffer)) != -1) {
+            count(buffer, 0, read);
+        }
+        finish();
+    }
+
+    /**
+     * Counts the next part of a diff that is not read from a stream of its
+     * own, such as the diffs of <tt>svn log --diff</tt>. To be followed by
+     * {@link #finish()} once the whole diff was given.
+     *
+     * @param bytes
+     *            the buffer holding the next part of the diff
+     * @param offset
+     *            where the part starts in the buffer
+     * @param length
+     *            the length of the part
+     */
+    public void count(final byte[] bytes, final int offset, final int length) {
+        for (int i = offset; i < offset + length; i++) {
+            accept(bytes[i]);
+        }
+    }
+
+    /**
+     * Ends the counting of a diff given with {@link #count(byte[], int, int)}.
+     */
+    public void finish() {
+        if (inLine) {
+            endLine();
+        }
+        if (bodyLines > 0) {
+            consistent = false;
+        }
+        if (answer != null && currFile != null) {
+            endSection();
+        }
+    }
+
+    /**
+     * @return false if the hunk headers did not match the hunk bodies, in
+     *         which case the counts cannot be trusted.
+     */
+    public boolean isConsistent() {
+        return consistent;
+    }
+
+    /**
+     * @return true if the diff of a single file showed a binary file.
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * @return the [lines added, lines removed] of the diff of a single file.
+     */
+    public int[] getLineDiff() {
+        if (binary) {
+            return new int[] { 0, 0 };
+        }
+        if (lineNumber == 0) {
+            // diff has no output because we modified properties or the changes
+            // are auto-generated ($id$ $author$ kind of thing)
+            // http://svnbook.red-bean.com/nightly/en/svn.advanced.props.html#svn.advanced.props.special.keywords
+            return new int[] { 0, 0 };
+        }
+        if (propertyChange && (linesAdded == -1 || linesRemoved == -1)) {
+            return new int[] { 0, 0 };
+        }
+        return new int[] { linesAdded, linesRemoved };
+    }
+
+    private void accept(final byte c) {
+        if (c == '\n' && previousWasCr) {
+            previousWasCr = false;
+            return;
+        }
+        previousWasCr = c == '\r';
+        if (c == '\n' || c == '\r') {
+            endLine();
+            return;
+        }
+
+        if (!inLine) {
+            inLine = true;
+            lineNumber++;
+            startLine(c);
+        } else if (collecting != null) {
+            if (lineTextLength == lineText.length) {
+                final byte[] larger = new byte[lineText.length * 2];
+                System.arraycopy(lineText, 0, larger, 0, lineTextLength);
+                lineText = larger;
+            }
+            lineText[lineTextLength++] = c;
+        } else if (!skipLine) {
+            matchMarker(c);
+        }
+    }
+
+    private void startLine(final byte c) {
+        if (bodyLines > 0) {
+            if (c == '\\') {
+                // \ No newline at end of file
+                skipLine = true;
+                return;
+            }
+            if (c == '+' || c == '-') {
+                bodyLines--;
+                skipLine = true;
+                return;
+            }
+            // the hunk header announced more lines than there are.
+            consistent = false;
+            bodyLines = 0;
+        }
+
+        if (answer != null && c == INDEX_MARKER[0]) {
+            candidate = INDEX_MARKER;
+        } else if (binary) {
+            skipLine = true;
+            return;
+        } else if (c == '+') {
+            // with hunk counts, additions are only expected in hunk bodies.
+            consistent &= !inHunks;
+            linesAdded++;
+            skipLine = true;
+            return;
+        } else if (c == '-') {
+            consistent &= !inHunks;
+            linesRemoved++;
+            skipLine = true;
+            return;
+        } else if (c == PROPERTY_CHANGE[0]) {
+            candidate = PROPERTY_CHANGE;
+        } else if (c == PROPERTY_NAME[0] && lineNumber == SvnDiffUtils.PROPERTY_NAME_LINE) {
+            candidate = PROPERTY_NAME;
+        } else if (c == BINARY_TYPE[0]) {
+            candidate = BINARY_TYPE;
+        } else if (hunkCounts && c == HUNK_MARKER[0]) {
+            candidate = HUNK_MARKER;
+        } else if (hunkCounts && c == PROPERTY_HUNK_MARKER[0]) {
+            candidate = PROPERTY_HUNK_MARKER;
+        } else {
+            skipLine = true;
+            return;
+        }
+        matched = 1;
+        if (matched == candidate.length) {
+            markerFound();
+        }
+    }
+
+    private void matchMarker(final byte c) {
+        if (candidate[matched] != c) {
+            skipLine = true;
+            return;
+        }
+        matched++;
+        if (matched == candidate.length) {
+            markerFound();
+        }
+    }
+
+    private void markerFound() {
+        skipLine = true;
+        if (candidate == INDEX_MARKER) {
+            if (currFile != null) {
+                endSection();
+                lineNumber = 1;
+            }
+            collecting = candidate;
+            lineTextLength = 0;
+        } else if (candidate == HUNK_MARKER || candidate == PROPERTY_HUNK_MARKER) {
+            collecting = candidate;
+            lineTextLength = 0;
+        } else if (candidate == BINARY_TYPE) {
+            binary = true;
+        } else {
+            propertyChange = true;
+        }
+    }
+
+    private void endLine() {
+        if (!inLine) {
+            // empty line
+            lineNumber++;
+        }
+        if (collecting == INDEX_MARKER) {
+            currFile = new String(lineText, 0, lineTextLength);
+            if (pathPrefix != null && currFile.startsWith(pathPrefix)) {
+                currFile = currFile.substring(pathPrefix.length());
+            }
+        } else if (collecting != null) {
+            hunkFound();
+        }
+        collecting = null;
+        inLine = false;
+        skipLine = false;
+        candidate = null;
+    }
+
+    private void endSection() {
+        final Object[] results = new Object[SvnDiffUtils.RESULT_SIZE];
+        results[0] = currFile;
+        results[1] = getLineDiff();
+        results[2] = Boolean.valueOf(binary);
+        answer.add(results);
+        resetSection();
+    }
+
+    /**
+     * Takes the counts from a hunk header, from what follows "@@ -": a[,b]
+     * +c[,d] @@. Omitted lengths are 1.
+     */
+    private void hunkFound() {
+        hunkPosition = 0;
+        final int removed = readRange();
+        if (removed < 0 || !readByte(' ') || !readByte('+')) {
+            consistent = false;
+            return;
+        }
+        final int added = readRange();
+        if (added < 0) {
+            consistent = false;
+            return;
+        }
+        linesAdded += added;
+        linesRemoved += removed;
+        bodyLines = added + removed;
+        inHunks = true;
+    }
+
+    /**
+     * @return the length of the range at the current position of the hunk
+     *         header, or -1 if it cannot be read.
+     */
+    private int readRange() {
+        if (readNumber() < 0) {
+            return -1;
+        }
+        return readByte(',') ? readNumber() : 1;
+    }
+
+    private int readNumber() {
+        int number = -1;
+        while (hunkPosition < lineTextLength && lineText[hunkPosition] >= '0' && lineText[hunkPosition] <= '9' && number < Integer.MAX_VALUE / 10) {
+            number = Math.max(number, 0) * 10 + lineText[hunkPosition++] - '0';
+        }
+        return number;
+    }
+
+    private boolean readByte(final char expected) {
+        if (hunkPosition < lineTextLength && lineText[hunkPosition] == expected) {
+            hunkPosition++;
+            return true;
+        }
+        return false;
+    }
+
+    private void resetSection() {
+        lineNumber = 0;
+        linesAdded = -1;
+        linesRemoved = -1;
+        propertyChange = false;
+        binary = false;
+        inHunks = false;
+        bodyLines = 0;
+    }
+
+    private static byte[] toAscii(final String marker) {
+        try {
+            return marker.getBytes("US-ASCII");
+        } catch (final UnsupportedEncodingException e) {
+            return marker.getBytes();
+        }
+    }
+}
@@ -40,4 +40,27 @@ public interface ISvnDiffProcessor {
     */
     public abstract Vector getLineDiff(final String newRevNr) throws IOException, BinaryDiffException;
 
+    /**
+    * Returns line count differences for all files under a given url in a
+    * particular revision.
+    * 
+    * @param newRevNr
+    *            new revision number
+    * @param url
+    *            the url under which changes are looked for (for example, the
+    *            common parent of several branches)
+    * @return A vector of object[3] array of [filename relative to url, int[2](lines added, lines removed), isBinary] is returned.
+    * @throws IOException
+    *             problem parsing the stream
+    * @throws BinaryDiffException
+    *             if the error message is due to trying to diff binary files.
+    */
+    public abstract Vector getLineDiff(final String newRevNr, final String url) throws IOException, BinaryDiffException;
+
+    /**
+     * Releases what is kept open from one diff to the next, such as
+     * connections to the repository, once all diffs are made.
+     */
+    public abstract void close();
+
 }
\ No newline at end of file
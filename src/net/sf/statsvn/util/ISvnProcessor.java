@@ -1,5 +1,7 @@
 package net.sf.statsvn.util;
 
+import java.io.File;
+
 /**
  * Interface for a base processor. Includes sub processors. 
  * 
@@ -11,4 +13,9 @@ public interface ISvnProcessor {
     public abstract ISvnInfoProcessor getInfoProcessor();
     public abstract ISvnPropgetProcessor getPropgetProcessor();
     public abstract ISvnVersionProcessor getVersionProcessor();
+
+    /**
+     * @return the working copy on which this processor operates.
+     */
+    public abstract File getCheckoutDirectory();
 }
\ No newline at end of file
@@ -0,0 +1,228 @@
+package net.sf.statsvn.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Counts the lines added and removed between two versions of a file, without
+ * calling svn diff. The counts are those of a minimal diff, found with the
+ * O(ND) algorithm of Eugene W. Myers, as svn diff also produces a minimal
+ * diff. Lines end with LF, CRLF or CR, and a line is only equal to a line
+ * with the same end of line, as in svn diff.
+ * </p>
+ *
+ * <p>
+ * The cost of the algorithm grows with the size of the files times the number
+ * of differences. When the files differ too much for an exact count in
+ * reasonable time, the counts are approximated from the number of times each
+ * line appears in each version, which ignores moved lines.
+ * </p>
+ */
+public final class LineDiff {
+    // bound on the work of the Myers algorithm: lines times differences.
+    private static final long MAX_COST = 1L << 28;
+
+    private static final int MIN_DIFFERENCES = 1000;
+
+    /**
+     * A utility class (only static methods) should be final and have a
+     * private constructor.
+     */
+    private LineDiff() {
+    }
+
+    /**
+     * Counts the lines of a file, as they would be read by a
+     * <tt>BufferedReader</tt>.
+     *
+     * @param text
+     *            the content of the file
+     * @return the number of lines.
+     */
+    public static int countLines(final byte[] text) {
+        int lines = 0;
+        for (int i = 0; i < text.length; i = endOfLine(text, i)) {
+            lines++;
+        }
+        return lines;
+    }
+
+    /**
+     * Counts the lines added and removed from one version of a file to the
+     * next.
+     *
+     * @param oldText
+     *            the content of the old version
+     * @param newText
+     *            the content of the new version
+     * @return [lines added, lines removed]
+     */
+    public static int[] countChanges(final byte[] oldText, final byte[] newText) {
+        final Map ids = new HashMap();
+        final int[] a = toLineIds(oldText, ids);
+        final int[] b = toLineIds(newText, ids);
+
+        int start = 0;
+        while (start < a.length && start < b.length && a[start] == b[start]) {
+            start++;
+        }
+        int aEnd = a.length;
+        int bEnd = b.length;
+        while (aEnd > start && bEnd > start && a[aEnd - 1] == b[bEnd - 1]) {
+            aEnd--;
+            bEnd--;
+        }
+
+        final int n = aEnd - start;
+        final int m = bEnd - start;
+        if (n == 0 || m == 0) {
+            return new int[] { m, n };
+        }
+        final int maxDifferences = (int) Math.min(n + m, Math.max(MIN_DIFFERENCES, MAX_COST / (n + m)));
+        final int differences = countDifferences(a, start, n, b, start, m, maxDifferences);
+        if (differences < 0) {
+            final int common = countCommonLines(a, start, aEnd, b, start, bEnd, ids.size());
+            return new int[] { m - common, n - common };
+        }
+        // differences = added + removed and m - n = added - removed
+        return new int[] { (differences + m - n) / 2, (differences - m + n) / 2 };
+    }
+
+    /**
+     * Greedy forward search of the Myers algorithm, keeping only the furthest
+     * point reached on each diagonal.
+     *
+     * @return the number of lines added and removed, or -1 if it is more than
+     *         maxDifferences.
+     */
+    private static int countDifferences(final int[] a, final int aStart, final int n, final int[] b, final int bStart, final int m,
+            final int maxDifferences) {
+        final int offset = maxDifferences + 1;
+        final int[] furthest = new int[2 * maxDifferences + 3];
+        for (int d = 0; d <= maxDifferences; d++) {
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && furthest[offset + k - 1] < furthest[offset + k + 1])) {
+                    x = furthest[offset + k + 1];
+                } else {
+                    x = furthest[offset + k - 1] + 1;
+                }
+                int y = x - k;
+                while (x < n && y < m && a[aStart + x] == b[bStart + y]) {
+                    x++;
+                    y++;
+                }
+                furthest[offset + k] = x;
+                if (x >= n && y >= m) {
+                    return d;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the number of lines that appear in both versions, counting each
+     *         line as many times as it appears in both.
+     */
+    private static int countCommonLines(final int[] a, final int aStart, final int aEnd, final int[] b, final int bStart, final int bEnd,
+            final int nbIds) {
+        final int[] counts = new int[nbIds];
+        for (int i = aStart; i < aEnd; i++) {
+            counts[a[i]]++;
+        }
+        int common = 0;
+        for (int i = bStart; i < bEnd; i++) {
+            if (counts[b[i]] > 0) {
+                counts[b[i]]--;
+                common++;
+            }
+        }
+        return common;
+    }
+
+    private static int[] toLineIds(final byte[] text, final Map ids) {
+        int[] lineIds = new int[64];
+        int lines = 0;
+        for (int i = 0; i < text.length;) {
+            final int end = endOfLine(text, i);
+            final Line line = new Line(text, i, end);
+            Integer id = (Integer) ids.get(line);
+            if (id == null) {
+                id = Integer.valueOf(ids.size());
+                ids.put(line, id);
+            }
+            if (lines == lineIds.length) {
+                final int[] larger = new int[lineIds.length * 2];
+                System.arraycopy(lineIds, 0, larger, 0, lines);
+                lineIds = larger;
+            }
+            lineIds[lines++] = id.intValue();
+            i = end;
+        }
+        final int[] result = new int[lines];
+        System.arraycopy(lineIds, 0, result, 0, lines);
+        return result;
+    }
+
+    /**
+     * @return the position after the end of line of the line that starts at
+     *         the given position.
+     */
+    private static int endOfLine(final byte[] text, final int start) {
+        for (int i = start; i < text.length; i++) {
+            if (text[i] == '\n') {
+                return i + 1;
+            }
+            if (text[i] == '\r') {
+                return i + 1 < text.length && text[i + 1] == '\n' ? i + 2 : i + 1;
+            }
+        }
+        return text.length;
+    }
+
+    /**
+     * A line of a file, end of line included, as a key of the line ids.
+     */
+    private static final class Line {
+        private final byte[] text;
+
+        private final int start;
+
+        private final int end;
+
+        private final int hash;
+
+        private Line(final byte[] text, final int start, final int end) {
+            this.text = text;
+            this.start = start;
+            this.end = end;
+            int h = 1;
+            for (int i = start; i < end; i++) {
+                h = 31 * h + text[i];
+            }
+            hash = h;
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Line)) {
+                return false;
+            }
+            final Line other = (Line) obj;
+            if (hash != other.hash || end - start != other.end - other.start) {
+                return false;
+            }
+            for (int i = 0; i < end - start; i++) {
+                if (text[start + i] != other.text[other.start + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
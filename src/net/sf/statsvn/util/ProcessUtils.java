@@ -1,7 +1,10 @@
 package net.sf.statsvn.util;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -9,39 +12,176 @@ import java.io.InputStreamReader;
 import net.sf.statcvs.util.LookaheadReader;
 import net.sf.statsvn.output.SvnConfigurationOptions;
 
+import edu.emory.mathcs.backport.java.util.concurrent.Callable;
+import edu.emory.mathcs.backport.java.util.concurrent.ConcurrentHashMap;
+import edu.emory.mathcs.backport.java.util.concurrent.ExecutionException;
+import edu.emory.mathcs.backport.java.util.concurrent.ExecutorService;
+import edu.emory.mathcs.backport.java.util.concurrent.Executors;
+import edu.emory.mathcs.backport.java.util.concurrent.Future;
+import edu.emory.mathcs.backport.java.util.concurrent.ScheduledExecutorService;
+import edu.emory.mathcs.backport.java.util.concurrent.ThreadFactory;
+import edu.emory.mathcs.backport.java.util.concurrent.TimeUnit;
+import edu.emory.mathcs.backport.java.util.concurrent.atomic.AtomicLong;
+
 /**
- * This class provides a way of launching new processes. It is not the best way
- * and it surely does not work well in multi-threaded environments. It is
- * sufficient for StatSVN's single thread.
- * 
- * We should be launching two threads with readers for both, but we are lazy.
- * http://www.javaworld.com/javaworld/jw-12-2000/jw-1229-traps_p.html
- * 
+ * <p>
+ * Launches processes, such as svn diff, from several threads at once. The
+ * command is given as an array of arguments, so that paths with spaces are
+ * passed as they are. The standard output is read by the caller as it is
+ * produced, while the error stream is drained at the same time by a thread of
+ * a shared pool, so that a chatty error stream never blocks the process on a
+ * full pipe.
+ * </p>
+ *
+ * <p>
+ * Once the standard output is read, {@link #hasErrorOccured()} waits for the
+ * process to end and reports an error if the exit code is not 0 or if
+ * anything was written to the error stream. A call that takes longer than
+ * {@link SvnConfigurationOptions#getSvnTimeout()} is killed.
+ * </p>
+ *
  * @author jkealey <jkealey@shade.ca>
- * 
+ *
  */
 public final class ProcessUtils {
+	private static final int BUFFER_SIZE = 8192;
+
+	private static final ThreadFactory DAEMON_THREADS = new ThreadFactory() {
+		public Thread newThread(final Runnable runnable) {
+			final Thread thread = new Thread(runnable, "svn stream pump");
+			thread.setDaemon(true);
+			return thread;
+		}
+	};
+
+	// shared by all calls: the threads, and their buffer, are reused.
+	private static final ExecutorService PUMPS = Executors.newCachedThreadPool(DAEMON_THREADS);
+
+	private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(DAEMON_THREADS);
+
+	// the bytes read from the standard output of the metered processes.
+	private static final AtomicLong BYTES_READ = new AtomicLong();
+
+	// thread -> the ProcessUtils it has open, so that another thread can kill it.
+	private static final ConcurrentHashMap RUNNING = new ConcurrentHashMap();
+
+	private static final ThreadLocal BUFFERS = new ThreadLocal() {
+		protected Object initialValue() {
+			return new byte[BUFFER_SIZE];
+		}
+	};
+
 	private BufferedInputStream inputStream;
 
 	private BufferedInputStream errorStream;
 
+	private Process process;
+
+	private String command;
+
+	private Future errorPump;
+
+	private Future watchdog;
+
+	private volatile boolean timedOut = false;
+
+	private volatile boolean killed = false;
+
+	private int exitCode = 0;
+
+	private Thread owner;
+
 	/**
-	 * A utility class (only static methods) should be final and have
-	 * a private constructor.
+	 * Creates an object without a process, whose streams are set with {@link
+	 * #setInputStream(InputStream)} and {@link #setErrorStream(InputStream)}.
 	 */
 	public ProcessUtils() {
 	}
 
-	public static synchronized ProcessUtils call(final String sCommand) throws IOException {
+	/**
+	 * Launches a command in the working folder of the checkout.
+	 *
+	 * @param command
+	 *            the program and its arguments
+	 * @return the process streams
+	 * @throws IOException
+	 *             if the process cannot be started
+	 */
+	public static ProcessUtils call(final String[] command) throws IOException {
+		return call(command, getWorkingFolder());
+	}
+
+	/**
+	 * Launches a command in the given working folder.
+	 *
+	 * @param command
+	 *            the program and its arguments
+	 * @param workingFolder
+	 *            the folder in which to run the command
+	 * @return the process streams
+	 * @throws IOException
+	 *             if the process cannot be started
+	 */
+	public static ProcessUtils call(final String[] command, final File workingFolder) throws IOException {
+		return call(command, workingFolder, false);
+	}
+
+	/**
+	 * Launches a command in the given working folder.
+	 *
+	 * @param command
+	 *            the program and its arguments
+	 * @param workingFolder
+	 *            the folder in which to run the command
+	 * @param metered
+	 *            true to count the bytes of its standard output in
+	 *            {@link #getTotalBytesRead()}.
+	 * @return the process streams
+	 * @throws IOException
+	 *             if the process cannot be started
+	 */
+	public static ProcessUtils call(final String[] command, final File workingFolder, final boolean metered) throws IOException {
 		final ProcessUtils util = new ProcessUtils();
-		final Process lastProcess = Runtime.getRuntime().exec(sCommand, null, getWorkingFolder());
-		util.errorStream = new BufferedInputStream(lastProcess.getErrorStream());
-		util.inputStream = new BufferedInputStream(lastProcess.getInputStream());
+		util.command = command[0] + (command.length > 1 ? " " + command[1] : "");
+		util.process = Runtime.getRuntime().exec(command, null, workingFolder);
+		final InputStream output = util.process.getInputStream();
+		util.inputStream = new BufferedInputStream(metered ? new CountingInputStream(output) : output);
+		util.errorPump = PUMPS.submit(new ErrorPump(util.process.getErrorStream()));
+		util.owner = Thread.currentThread();
+		RUNNING.put(util.owner, util);
 
+		final long timeout = SvnConfigurationOptions.getSvnTimeout();
+		if (timeout > 0) {
+			util.watchdog = WATCHDOG.schedule(new Runnable() {
+				public void run() {
+					util.timedOut = true;
+					util.process.destroy();
+				}
+			}, timeout, TimeUnit.MILLISECONDS);
+		}
 		return util;
 	}
 
+	/**
+	 * Closes the streams. A process whose output was not read to the end is
+	 * killed.
+	 *
+	 * @throws IOException
+	 *             if a stream cannot be closed.
+	 */
 	public void close() throws IOException {
+		if (watchdog != null) {
+			watchdog.cancel(false);
+			watchdog = null;
+		}
+		if (process != null) {
+			process.destroy();
+		}
+		if (owner != null) {
+			// only if another process of the thread has not replaced it.
+			RUNNING.remove(owner, this);
+			owner = null;
+		}
 		if (errorStream != null) {
 			errorStream.close();
 			errorStream = null;
@@ -52,20 +192,82 @@ public final class ProcessUtils {
 		}
 	}
 
+	/**
+	 * Kills the process a thread is reading from, if any: the thread sees the
+	 * end of its output and an error.
+	 *
+	 * @param thread
+	 *            the thread that launched the process
+	 */
+	public static void killProcessOf(final Thread thread) {
+		final ProcessUtils util = (ProcessUtils) RUNNING.get(thread);
+		if (util != null) {
+			util.killed = true;
+			util.process.destroy();
+		}
+	}
+
+	/**
+	 * @return true if the process was killed, by {@link
+	 *         #killProcessOf(Thread)} or because it timed out.
+	 */
+	public boolean isAborted() {
+		return killed || timedOut;
+	}
+
+	/**
+	 * @return the number of bytes read so far from the standard output of
+	 *         the processes launched as metered by
+	 *         {@link #call(String[], File, boolean)}.
+	 */
+	public static long getTotalBytesRead() {
+		return BYTES_READ.get();
+	}
+
 	private static File getWorkingFolder() {
 		return SvnConfigurationOptions.getCheckedOutDirectoryAsFile();
 	}
 
+	/**
+	 * To be called once the standard output has been read: waits for the
+	 * process to end.
+	 *
+	 * @return true if the process failed, timed out, was killed or wrote to
+	 *         its error stream.
+	 * @throws IOException
+	 *             if interrupted while waiting for the process.
+	 */
 	protected boolean hasErrorOccured() throws IOException {
-		return errorStream != null && errorStream.available() > 0;
+		if (process != null && errorStream == null) {
+			waitForProcess();
+		}
+		return timedOut || killed || exitCode != 0 || (errorStream != null && errorStream.available() > 0);
+	}
+
+	private void waitForProcess() throws IOException {
+		try {
+			exitCode = process.waitFor();
+			errorStream = new BufferedInputStream(new ByteArrayInputStream((byte[]) errorPump.get()));
+		} catch (final InterruptedException e) {
+			throw new IOException("Interrupted while waiting for " + command);
+		} catch (final ExecutionException e) {
+			if (!timedOut && !killed) {
+				throw new IOException("Unable to read the error stream of " + command + ": " + e.getCause());
+			}
+			// killed while its error stream was read.
+			errorStream = new BufferedInputStream(new ByteArrayInputStream(new byte[0]));
+		}
 	}
 
 	protected String getErrorMessage() {
-		if (errorStream == null) {
-			return null;
-		} else {
+		final StringBuffer builder = new StringBuffer();
+		if (timedOut) {
+			builder.append(command).append(" timed out after ").append(SvnConfigurationOptions.getSvnTimeout()).append(" ms. ");
+		} else if (killed) {
+			builder.append(command).append(" was killed. ");
+		}
+		if (errorStream != null) {
 			final LookaheadReader diffReader = new LookaheadReader(new InputStreamReader(errorStream));
-			final StringBuffer builder = new StringBuffer();
 			try {
 				while (diffReader.hasNextLine()) {
 					builder.append(diffReader.nextLine());
@@ -73,13 +275,16 @@ public final class ProcessUtils {
 			} catch (final IOException e) {
 				SvnConfigurationOptions.getTaskLogger().error(e.toString());
 			}
-
-			return builder.toString();
 		}
+		if (builder.length() == 0 && exitCode != 0) {
+			builder.append(command).append(" exited with code ").append(exitCode);
+		}
+		return builder.length() == 0 && errorStream == null ? null : builder.toString();
 	}
 
 	/**
-	 * @return the errorStream
+	 * @return the errorStream, available once {@link #hasErrorOccured()} has
+	 *         waited for the process.
 	 */
 	public BufferedInputStream getErrorStream() {
 		return errorStream;
@@ -105,4 +310,62 @@ public final class ProcessUtils {
 	public void setInputStream(final InputStream inputStream) {
 		this.inputStream = new BufferedInputStream(inputStream);
 	}
+
+	/**
+	 * Counts the bytes read from a standard output.
+	 */
+	private static final class CountingInputStream extends FilterInputStream {
+		private CountingInputStream(final InputStream stream) {
+			super(stream);
+		}
+
+		public int read() throws IOException {
+			final int read = super.read();
+			if (read >= 0) {
+				BYTES_READ.incrementAndGet();
+			}
+			return read;
+		}
+
+		public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+			final int read = super.read(buffer, offset, length);
+			if (read > 0) {
+				BYTES_READ.addAndGet(read);
+			}
+			return read;
+		}
+
+		public long skip(final long count) throws IOException {
+			final long skipped = super.skip(count);
+			if (skipped > 0) {
+				BYTES_READ.addAndGet(skipped);
+			}
+			return skipped;
+		}
+	}
+
+	/**
+	 * Reads an error stream to its end, with the buffer of the pump thread.
+	 */
+	private static final class ErrorPump implements Callable {
+		private final InputStream stream;
+
+		private ErrorPump(final InputStream stream) {
+			this.stream = stream;
+		}
+
+		public Object call() throws IOException {
+			final byte[] buffer = (byte[]) BUFFERS.get();
+			final ByteArrayOutputStream output = new ByteArrayOutputStream();
+			try {
+				int read;
+				while ((read = stream.read(buffer)) >= 0) {
+					output.write(buffer, 0, read);
+				}
+			} finally {
+				stream.close();
+			}
+			return output.toByteArray();
+		}
+	}
 }
@@ -3,31 +3,36 @@
  */
 package net.sf.statsvn.util;
 
+import java.util.List;
+
 import net.sf.statsvn.output.SvnConfigurationOptions;
 
 /**
  * @author jpdaigle
  *
- * Utility class to help build svn command strings
+ * Utility class to help build svn command lines
  */
 public final class SvnCommandHelper {
 	private SvnCommandHelper() {
 	}
 
 	/**
-	 * Gets the authentication / non-interactive command part to use when invoking
-	 * the subversion binary.
+	 * Adds the authentication / non-interactive arguments to a command to be
+	 * given to {@link ProcessUtils#call(String[], java.io.File)}.
 	 * 
-	 * @return A String with the username, password and non-interactive settings
+	 * @param command
+	 *            the program and its arguments so far
+	 * @return the program and all its arguments.
 	 */
-	public static String getAuthString() {
-		final StringBuffer strAuth = new StringBuffer(" --non-interactive");
+	public static String[] withAuthArguments(final List command) {
+		command.add("--non-interactive");
 		if (SvnConfigurationOptions.getSvnUsername() != null) {
-			strAuth.append(" --username ").append(SvnConfigurationOptions.getSvnUsername()).append(" --password ").append(
-			        SvnConfigurationOptions.getSvnPassword());
+			command.add("--username");
+			command.add(SvnConfigurationOptions.getSvnUsername());
+			command.add("--password");
+			command.add(SvnConfigurationOptions.getSvnPassword());
 		}
-
-		return strAuth.toString();
+		return (String[]) command.toArray(new String[command.size()]);
 	}
 
 }
@@ -1,5 +1,8 @@
 package net.sf.statsvn.util;
 
+import java.io.File;
+
+import net.sf.statsvn.output.SvnConfigurationOptions;
 
 /**
  * Base processor that uses the command line svn client. 
@@ -8,7 +11,31 @@ package net.sf.statsvn.util;
  */
 public class SvnCommandLineProcessor implements ISvnProcessor {
 
-    
+    private File checkoutDirectory;
+
+    /**
+     * Processor for the working copy given on the command line.
+     */
+    public SvnCommandLineProcessor() {
+    }
+
+    /**
+     * Processor for another working copy, used when reporting on several
+     * branches at once.
+     * 
+     * @param checkoutDirectory
+     *            the working copy
+     */
+    public SvnCommandLineProcessor(final File checkoutDirectory) {
+        this.checkoutDirectory = checkoutDirectory;
+    }
+
+    public File getCheckoutDirectory()
+    {
+        if (checkoutDirectory==null) return SvnConfigurationOptions.getCheckedOutDirectoryAsFile();
+        return checkoutDirectory;
+    }
+
     private ISvnDiffProcessor diffProcessorInstance;
     public ISvnDiffProcessor getDiffProcessor()
     {
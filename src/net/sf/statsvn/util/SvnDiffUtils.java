@@ -2,11 +2,10 @@ package net.sf.statsvn.util;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Vector;
 
-import net.sf.statcvs.util.LookaheadReader;
 import net.sf.statsvn.output.SvnConfigurationOptions;
 
 /**
@@ -53,17 +52,23 @@ public class SvnDiffUtils implements ISvnDiffProcessor {
 	 *            new revision number
 	 * @param filename
 	 *            filename.
+	 * @param zeroContext
+	 *            true to ask for a diff without context lines.
 	 * @return the InputStream related to the call. If the error steam is
 	 *         non-empty, will return the error stream instead of the default
 	 *         input stream.
 	 */
-	protected synchronized ProcessUtils callSvnDiff(final String oldRevNr, final String newRevNr, String filename) throws IOException {
-		String svnDiffCommand = null;
+	protected ProcessUtils callSvnDiff(final String oldRevNr, final String newRevNr, String filename, final boolean zeroContext)
+	        throws IOException {
 		filename = getProcessor().getInfoProcessor().relativePathToUrl(filename);
 		filename = StringUtils.replace(" ", "%20", filename);
-		svnDiffCommand = "svn diff --old " + filename + "@" + oldRevNr + "  --new " + filename + "@" + newRevNr + "" + SvnCommandHelper.getAuthString();
-		SvnConfigurationOptions.getTaskLogger().log(Thread.currentThread().getName() + " FIRING command line:\n[" + svnDiffCommand + "]");
-		return ProcessUtils.call(svnDiffCommand);
+		final List svnDiffCommand = createDiffCommand(zeroContext);
+		svnDiffCommand.add("--old");
+		svnDiffCommand.add(filename + "@" + oldRevNr);
+		svnDiffCommand.add("--new");
+		svnDiffCommand.add(filename + "@" + newRevNr);
+		SvnConfigurationOptions.getTaskLogger().log(Thread.currentThread().getName() + " FIRING command line:\n" + svnDiffCommand);
+		return ProcessUtils.call(SvnCommandHelper.withAuthArguments(svnDiffCommand), getProcessor().getCheckoutDirectory(), true);
 	}
 
 	/**
@@ -75,40 +80,83 @@ public class SvnDiffUtils implements ISvnDiffProcessor {
 	 *         non-empty, will return the error stream instead of the default
 	 *         input stream.
 	 */
-	protected synchronized ProcessUtils callSvnDiff(final String newRevNr) throws IOException {
-		String svnDiffCommand = null;
-		svnDiffCommand = "svn diff -c " + newRevNr + " " + getProcessor().getInfoProcessor().getRootUrl() + " " + SvnCommandHelper.getAuthString();
-		SvnConfigurationOptions.getTaskLogger().log(Thread.currentThread().getName() + " FIRING command line:\n[" + svnDiffCommand + "]");
-		return ProcessUtils.call(svnDiffCommand);
+	protected ProcessUtils callSvnDiff(final String newRevNr) throws IOException {
+		return callSvnDiff(newRevNr, getProcessor().getInfoProcessor().getRootUrl(), isZeroContextDiff());
+	}
+
+	/**
+	 * Calls svn diff on all files under url for given revision and revision-1.
+	 * 
+	 * @param newRevNr
+	 *            revision number
+	 * @param url
+	 *            the url under which to look for changes
+	 * @param zeroContext
+	 *            true to ask for a diff without context lines.
+	 * @return the InputStream related to the call. If the error steam is
+	 *         non-empty, will return the error stream instead of the default
+	 *         input stream.
+	 */
+	protected ProcessUtils callSvnDiff(final String newRevNr, final String url, final boolean zeroContext) throws IOException {
+		final List svnDiffCommand = createDiffCommand(zeroContext);
+		svnDiffCommand.add("-c");
+		svnDiffCommand.add(newRevNr);
+		svnDiffCommand.add(StringUtils.replace(" ", "%20", url));
+		SvnConfigurationOptions.getTaskLogger().log(Thread.currentThread().getName() + " FIRING command line:\n" + svnDiffCommand);
+		return ProcessUtils.call(SvnCommandHelper.withAuthArguments(svnDiffCommand), getProcessor().getCheckoutDirectory(), true);
 	}
 
 	/* (non-Javadoc)
      * @see net.sf.statsvn.util.ISvnDiffProcessor#getLineDiff(java.lang.String, java.lang.String, java.lang.String)
      */
 	public int[] getLineDiff(final String oldRevNr, final String newRevNr, final String filename) throws IOException, BinaryDiffException {
+		if (!isZeroContextDiff()) {
+			return getLineDiff(oldRevNr, newRevNr, filename, false);
+		}
 		int[] lineDiff;
+		try {
+			lineDiff = getLineDiff(oldRevNr, newRevNr, filename, true);
+		} catch (final ZeroContextRejectedException e) {
+			lineDiff = getLineDiff(oldRevNr, newRevNr, filename, false);
+			disableZeroContextDiff(e);
+		}
+		return lineDiff;
+	}
+
+	private int[] getLineDiff(final String oldRevNr, final String newRevNr, final String filename, final boolean zeroContext) throws IOException,
+	        BinaryDiffException {
+		final DiffLineCounter counter = new DiffLineCounter(null, zeroContext);
 		ProcessUtils pUtils = null;
 		try {
-			pUtils = callSvnDiff(oldRevNr, newRevNr, filename);
+			pUtils = callSvnDiff(oldRevNr, newRevNr, filename, zeroContext);
 			final InputStream diffStream = pUtils.getInputStream();
 
-			lineDiff = parseSingleDiffStream(diffStream);
+			counter.count(diffStream);
+			if (counter.isBinary()) {
+				throw new BinaryDiffException();
+			}
 
-			verifyOutput(pUtils);
+			verifyOutput(pUtils, zeroContext);
 		} finally {
 			if (pUtils != null) {
 				pUtils.close();
 			}
 		}
 
-		return lineDiff;
+		if (!counter.isConsistent()) {
+			SvnConfigurationOptions.getTaskLogger().log("Inconsistent hunk headers in diff of " + filename + "@" + newRevNr + "; counting lines instead.");
+			return getLineDiff(oldRevNr, newRevNr, filename, false);
+		}
+		return counter.getLineDiff();
 	}
 
     protected int[] parseSingleDiffStream(final InputStream diffStream) throws IOException, BinaryDiffException {
-        int[] lineDiff;
-        final LookaheadReader diffReader = new LookaheadReader(new InputStreamReader(diffStream));
-        lineDiff = parseDiff(diffReader);
-        return lineDiff;
+        final DiffLineCounter counter = new DiffLineCounter();
+        counter.count(diffStream);
+        if (counter.isBinary()) {
+            throw new BinaryDiffException();
+        }
+        return counter.getLineDiff();
     }
 
 	/**
@@ -130,82 +178,159 @@ public class SvnDiffUtils implements ISvnDiffProcessor {
 		}
 	}
 
+	/**
+	 * Verifies the process error stream of a diff, telling apart an svn that
+	 * rejects the zero-context option from any other failure.
+	 * 
+	 * @param pUtils
+	 *            the process call
+	 * @param zeroContext
+	 *            true if the diff was asked without context lines
+	 * @throws ZeroContextRejectedException
+	 *             if svn does not support -x -U0.
+	 */
+	private void verifyOutput(final ProcessUtils pUtils, final boolean zeroContext) throws IOException, BinaryDiffException {
+		try {
+			verifyOutput(pUtils);
+		} catch (final IOException e) {
+			// a call killed or timed out is over: nothing to retry.
+			if (zeroContext && !pUtils.isAborted() && isZeroContextRejected(e.getMessage())) {
+				throw new ZeroContextRejectedException(e.getMessage());
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns true if msg is an svn error about the options of -x, such as
+	 * "svn: Error parsing diff options: invalid option" or "svn: invalid
+	 * option: -x".
+	 * 
+	 * @param msg
+	 *            the error message given by ProcessUtils.getErrorMessage();
+	 * @return true if svn rejected -x -U0
+	 */
+	protected static boolean isZeroContextRejected(final String msg) {
+		if (msg == null) {
+			return false;
+		}
+		final String lower = msg.toLowerCase();
+		return lower.indexOf("diff options") >= 0
+		        || ((lower.indexOf("invalid option") >= 0 || lower.indexOf("unknown option") >= 0 || lower.indexOf("unrecognized option") >= 0) && (lower
+		                .indexOf("-x") >= 0 || lower.indexOf("-u") >= 0));
+	}
+
 	/* (non-Javadoc)
      * @see net.sf.statsvn.util.ISvnDiffProcessor#getLineDiff(java.lang.String)
      */
 	public Vector getLineDiff(final String newRevNr) throws IOException, BinaryDiffException {
+		return getLineDiff(newRevNr, getProcessor().getInfoProcessor().getRootUrl());
+	}
+
+	/* (non-Javadoc)
+     * @see net.sf.statsvn.util.ISvnDiffProcessor#getLineDiff(java.lang.String, java.lang.String)
+     */
+	public Vector getLineDiff(final String newRevNr, final String url) throws IOException, BinaryDiffException {
+		if (!isZeroContextDiff()) {
+			return getLineDiff(newRevNr, url, false);
+		}
+		Vector answer;
+		try {
+			answer = getLineDiff(newRevNr, url, true);
+		} catch (final ZeroContextRejectedException e) {
+			answer = getLineDiff(newRevNr, url, false);
+			disableZeroContextDiff(e);
+		}
+		return answer;
+	}
+
+	private Vector getLineDiff(final String newRevNr, final String url, final boolean zeroContext) throws IOException, BinaryDiffException {
 		final Vector answer = new Vector();
+		final DiffLineCounter counter = new DiffLineCounter(answer, zeroContext);
 
 		ProcessUtils pUtils = null;
 		try {
-			pUtils = callSvnDiff(newRevNr);
+			pUtils = callSvnDiff(newRevNr, url, zeroContext);
 			final InputStream diffStream = pUtils.getInputStream();
-			parseMultipleDiffStream(answer, diffStream);
+			counter.count(diffStream);
 
-			verifyOutput(pUtils);
+			verifyOutput(pUtils, zeroContext);
 		} finally {
 			if (pUtils != null) {
 				pUtils.close();
 			}
 		}
 
+		if (!counter.isConsistent()) {
+			SvnConfigurationOptions.getTaskLogger().log("Inconsistent hunk headers in diff of revision " + newRevNr + "; counting lines instead.");
+			return getLineDiff(newRevNr, url, false);
+		}
 		return answer;
 	}
 
-    protected void parseMultipleDiffStream(final Vector answer, final InputStream diffStream) throws IOException {
-        final LookaheadReader diffReader = new LookaheadReader(new InputStreamReader(diffStream));
-        String currFile = null;
-        StringBuffer sb = new StringBuffer();
-        while (diffReader.hasNextLine()) {
-        	final String currLine = diffReader.nextLine();
-
-        	if (currFile == null && currLine.startsWith(INDEX_MARKER)) {
-        		currFile = currLine.substring(INDEX_MARKER.length());
-        	} else if (currFile != null && currLine.startsWith(INDEX_MARKER)) {
-        		appendResults(answer, currFile, sb);
-        		sb = new StringBuffer();
-        		currFile = currLine.substring(INDEX_MARKER.length());
-        	}
-
-        	sb.append(currLine);
-        	sb.append(System.getProperty("line.separator"));
-        }
+	/**
+	 * Nothing is kept open: each diff is an svn process of its own.
+	 */
+	public void close() {
+	}
 
-        // last file
-        if (currFile!=null) {
-            appendResults(answer, currFile, sb);
-        }
-    }
+	/**
+	 * Zero-context diffs are only used with the svn command line; svnkit
+	 * always sends context lines.
+	 * 
+	 * @return true if svn diff should be asked for diffs without context
+	 *         lines, counted from their hunk headers.
+	 */
+	protected boolean isZeroContextDiff() {
+		return SvnConfigurationOptions.isZeroContextDiff();
+	}
+
+	private static List createDiffCommand(final boolean zeroContext) {
+		final List command = new ArrayList();
+		command.add("svn");
+		command.add("diff");
+		if (zeroContext) {
+			command.add("-x");
+			command.add("-U0");
+		}
+		return command;
+	}
 
 	/**
-	 * Append results to answer vector.  
-	 * @param answer the current answers
-	 * @param currFile the current file being added. 
-	 * @param sb the diff for this individual file. 
-	 * @throws IOException
-	 *             problem parsing the stream
-	 * @throws BinaryDiffException
-	 *             if the error message is due to trying to diff binary files.
+	 * Called when a zero-context diff failed but the same diff with context
+	 * succeeded: this svn does not support the option.
 	 */
-	protected void appendResults(final Vector answer, final String currFile, final StringBuffer sb) throws IOException {
-		int[] lineDiff;
-		Boolean isBinary = Boolean.FALSE;
+	private void disableZeroContextDiff(final IOException e) {
+		if (SvnConfigurationOptions.isZeroContextDiff()) {
+			SvnConfigurationOptions.setZeroContextDiff(false);
+			SvnConfigurationOptions.getTaskLogger().info("svn diff -x -U0 is not supported by this svn (" + e.getMessage() + "); using regular diffs.");
+		}
+	}
 
-		final LookaheadReader individualDiffReader = new LookaheadReader(new StringReader(sb.toString()));
-		try {
-			lineDiff = parseDiff(individualDiffReader);
-		} catch (final BinaryDiffException e) {
-			lineDiff = new int[2];
-			lineDiff[0] = 0;
-			lineDiff[1] = 0;
-			isBinary = Boolean.TRUE;
+    /**
+     * Counts the lines of each file of a multiple file diff, as the diff is
+     * read. Nothing is buffered, so huge diffs do not end up in memory.
+     * 
+     * @param answer
+     *            receives the results, see {@link #getLineDiff(String)}
+     * @param diffStream
+     *            the output of svn diff
+     * @throws IOException
+     *             problem reading the stream
+     */
+    protected void parseMultipleDiffStream(final Vector answer, final InputStream diffStream) throws IOException {
+        new DiffLineCounter(answer).count(diffStream);
+    }
+
+	/**
+	 * svn does not support the zero-context diff option.
+	 */
+	private static final class ZeroContextRejectedException extends IOException {
+		private static final long serialVersionUID = 1L;
 
+		private ZeroContextRejectedException(final String msg) {
+			super(msg);
 		}
-		final Object[] results = new Object[RESULT_SIZE];
-		results[0] = currFile;
-		results[1] = lineDiff;
-		results[2] = isBinary;
-		answer.add(results);
 	}
 
 	/**
@@ -226,54 +351,4 @@ public class SvnDiffUtils implements ISvnDiffProcessor {
 		return (msg.indexOf(BINARY_TYPE) >= 0);
 	}
 
-	/**
-	 * Returns line count differences between two revisions of a file.
-	 * 
-	 * @param diffReader
-	 *            the stream reader for svn diff
-	 * 
-	 * @return A int[2] array of [lines added, lines removed] is returned.
-	 * @throws IOException
-	 *             problem parsing the stream
-	 */
-	protected int[] parseDiff(final LookaheadReader diffReader) throws IOException, BinaryDiffException {
-		final int[] lineDiff = { -1, -1 };
-		boolean propertyChange = false;
-		if (!diffReader.hasNextLine()) {
-			// diff has no output because we modified properties or the changes
-			// are auto-generated ($id$ $author$ kind of thing)
-			// http://svnbook.red-bean.com/nightly/en/svn.advanced.props.html#svn.advanced.props.special.keywords
-			lineDiff[0] = 0;
-			lineDiff[1] = 0;
-		}
-		while (diffReader.hasNextLine()) {
-			diffReader.nextLine();
-			final String currentLine = diffReader.getCurrentLine();
-
-			SvnConfigurationOptions.getTaskLogger().log(Thread.currentThread().getName() + " Diff Line: [" + currentLine + "]");
-
-			if (currentLine.length() == 0) {
-				continue;
-			}
-			final char firstChar = currentLine.charAt(0);
-			// very simple algorithm
-			if (firstChar == '+') {
-				lineDiff[0]++;
-			} else if (firstChar == '-') {
-				lineDiff[1]++;
-			} else if (currentLine.indexOf(PROPERTY_CHANGE) == 0
-			        || (currentLine.indexOf(PROPERTY_NAME) == 0 && diffReader.getLineNumber() == PROPERTY_NAME_LINE)) {
-				propertyChange = true;
-			} else if (currentLine.indexOf(BINARY_TYPE) == 0) {
-				throw new BinaryDiffException();
-			}
-		}
-		if (propertyChange && (lineDiff[0] == -1 || lineDiff[1] == -1)) {
-			lineDiff[0] = 0;
-			lineDiff[1] = 0;
-		}
-
-		return lineDiff;
-	}
-
 }
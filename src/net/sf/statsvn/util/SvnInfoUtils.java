@@ -5,8 +5,10 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
@@ -20,6 +22,9 @@ import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
+import edu.emory.mathcs.backport.java.util.Collections;
+import edu.emory.mathcs.backport.java.util.concurrent.ConcurrentHashMap;
+
 /**
  * Utilities class that manages calls to svn info. Used to find repository
  * information, latest revision numbers, and directories.
@@ -191,8 +196,9 @@ public class SvnInfoUtils implements ISvnInfoProcessor {
     // relative path -> Revision Number
     protected final HashMap HM_REVISIONS = new HashMap();
 
-    // if HashSet contains relative path, path is a directory.
-    protected final HashSet HS_DIRECTORIES = new HashSet();
+    // if Set contains relative path, path is a directory. Concurrent, as the
+    // post-parse passes over the files run in parallel.
+    protected final Set HS_DIRECTORIES = Collections.newSetFromMap(new ConcurrentHashMap());
 
     // Path of . in repository. Can only be calculated if given an element from
     // the SVN log.
@@ -220,7 +226,7 @@ public class SvnInfoUtils implements ISvnInfoProcessor {
 
         if (absolute.equals(getModuleName())) {
             return ".";
-        } else if (!absolute.startsWith(getModuleName())) {
+        } else if (!absolute.startsWith(getModuleName() + "/")) {
             return null;
         } else {
             return absolute.substring(getModuleName().length() + 1);
@@ -330,14 +336,16 @@ public class SvnInfoUtils implements ISvnInfoProcessor {
      * @return the response.
      */
     protected synchronized ProcessUtils getSvnInfo(boolean bRootOnly) {
-        String svnInfoCommand = "svn info --xml";
+        final List svnInfoCommand = new ArrayList();
+        svnInfoCommand.add("svn");
+        svnInfoCommand.add("info");
+        svnInfoCommand.add("--xml");
         if (!bRootOnly) {
-            svnInfoCommand += " -R";
+            svnInfoCommand.add("-R");
         }
-        svnInfoCommand += SvnCommandHelper.getAuthString();
 
         try {
-            return ProcessUtils.call(svnInfoCommand);
+            return ProcessUtils.call(SvnCommandHelper.withAuthArguments(svnInfoCommand), getProcessor().getCheckoutDirectory());
         } catch (final Exception e) {
             SvnConfigurationOptions.getTaskLogger().error(e.toString());
             return null;
@@ -355,9 +363,7 @@ public class SvnInfoUtils implements ISvnInfoProcessor {
      * @see net.sf.statsvn.util.ISvnInfoProcessor#addDirectory(java.lang.String)
      */
     public void addDirectory(final String relativePath) {
-        if (!HS_DIRECTORIES.contains(relativePath)) {
-            HS_DIRECTORIES.add(relativePath);
-        }
+        HS_DIRECTORIES.add(relativePath);
     }
 
     /**
@@ -53,25 +53,27 @@ public  class SvnPropgetUtils implements ISvnPropgetProcessor {
 	 * @return the inputstream from which to read the information.
 	 */
 	protected synchronized ProcessUtils getFileMimeTypes(final String revision, final String filename) {
-		String svnPropgetCommand = "svn propget svn:mime-type";
+		final List svnPropgetCommand = new ArrayList();
+		svnPropgetCommand.add("svn");
+		svnPropgetCommand.add("propget");
+		svnPropgetCommand.add("svn:mime-type");
 		if (revision != null && revision.length() > 0) {
-			svnPropgetCommand += " -r " + revision;
+			svnPropgetCommand.add("-r");
+			svnPropgetCommand.add(revision);
 		}
 
 		if (filename != null && filename.length() > 0) {
-			svnPropgetCommand += " " + StringUtils.replace(" ", "%20", getProcessor().getInfoProcessor().relativePathToUrl(filename));
-
+			String url = StringUtils.replace(" ", "%20", getProcessor().getInfoProcessor().relativePathToUrl(filename));
 			if (revision != null && revision.length() > 0) {
-				svnPropgetCommand += "@" + revision;
+				url += "@" + revision;
 			}
+			svnPropgetCommand.add(url);
 		} else {
-			svnPropgetCommand += " -R ";
+			svnPropgetCommand.add("-R");
 		}
 
-		svnPropgetCommand += SvnCommandHelper.getAuthString();
-
 		try {
-			return ProcessUtils.call(svnPropgetCommand);
+			return ProcessUtils.call(SvnCommandHelper.withAuthArguments(svnPropgetCommand), getProcessor().getCheckoutDirectory());
 		} catch (final Exception e) {
 			SvnConfigurationOptions.getTaskLogger().info(e.toString());
 			return null;
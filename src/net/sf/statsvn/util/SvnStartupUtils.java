@@ -17,7 +17,7 @@ import net.sf.statsvn.output.SvnConfigurationOptions;
  * @version $Id: SvnStartupUtils.java 394 2009-08-10 20:08:46Z jkealey $
  */
 public class SvnStartupUtils implements ISvnVersionProcessor {
-	private static final String SVN_VERSION_COMMAND = "svn --version";
+	private static final String[] SVN_VERSION_COMMAND = { "svn", "--version" };
 
 	public static final String SVN_MINIMUM_VERSION = "1.3.10";
 
@@ -0,0 +1,71 @@
+package net.sf.statsvn.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import edu.emory.mathcs.backport.java.util.concurrent.ThreadFactory;
+
+/**
+ * <p>
+ * Creates virtual threads when the JVM has them (Java 21 and later), and
+ * daemon platform threads otherwise. The virtual threads are created through
+ * reflection, so that StatSVN still compiles and runs on older JVMs.
+ * </p>
+ *
+ * <p>
+ * A virtual thread blocked on the output of an svn process does not hold a
+ * platform thread, so one can be started per svn diff; the number of
+ * concurrent requests to the server is then limited separately.
+ * </p>
+ */
+public final class VirtualThreadFactory implements ThreadFactory {
+    private final Object virtualFactory;
+
+    private final Method newThread;
+
+    /**
+     * Looks for the virtual thread builder of the JVM.
+     */
+    public VirtualThreadFactory() {
+        Object factory = null;
+        Method method = null;
+        try {
+            final Object builder = Thread.class.getMethod("ofVirtual", new Class[0]).invoke(null, new Object[0]);
+            factory = Class.forName("java.lang.Thread$Builder").getMethod("factory", new Class[0]).invoke(builder, new Object[0]);
+            method = Class.forName("java.util.concurrent.ThreadFactory").getMethod("newThread", new Class[] { Runnable.class });
+        } catch (final NoSuchMethodException e) {
+            factory = null;
+        } catch (final ClassNotFoundException e) {
+            factory = null;
+        } catch (final IllegalAccessException e) {
+            factory = null;
+        } catch (final InvocationTargetException e) {
+            // virtual threads are a preview feature of Java 19 and 20.
+            factory = null;
+        }
+        virtualFactory = factory;
+        newThread = factory == null ? null : method;
+    }
+
+    /**
+     * @return true if the threads created are virtual.
+     */
+    public boolean isVirtual() {
+        return virtualFactory != null;
+    }
+
+    public Thread newThread(final Runnable runnable) {
+        if (virtualFactory != null) {
+            try {
+                return (Thread) newThread.invoke(virtualFactory, new Object[] { runnable });
+            } catch (final IllegalAccessException e) {
+                throw new IllegalStateException(e.toString());
+            } catch (final InvocationTargetException e) {
+                throw new IllegalStateException(e.getTargetException().toString());
+            }
+        }
+        final Thread thread = new Thread(runnable);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -0,0 +1,235 @@
+package net.sf.statsvn.util.svnkit;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.Vector;
+
+import net.sf.statsvn.util.LineDiff;
+import net.sf.statsvn.util.SvnDiffUtils;
+
+import org.tmatesoft.svn.core.SVNCommitInfo;
+import org.tmatesoft.svn.core.SVNDepth;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNNodeKind;
+import org.tmatesoft.svn.core.SVNProperties;
+import org.tmatesoft.svn.core.SVNProperty;
+import org.tmatesoft.svn.core.SVNPropertyValue;
+import org.tmatesoft.svn.core.io.ISVNEditor;
+import org.tmatesoft.svn.core.io.ISVNReporter;
+import org.tmatesoft.svn.core.io.ISVNReporterBaton;
+import org.tmatesoft.svn.core.io.SVNRepository;
+import org.tmatesoft.svn.core.io.diff.SVNDeltaProcessor;
+import org.tmatesoft.svn.core.io.diff.SVNDiffWindow;
+
+/**
+ * <p>
+ * Counts the lines added and removed by a revision from the deltas the
+ * repository sends to update a tree from the previous revision, without asking
+ * svnkit for a unified diff. Each delta is applied to the text of the file in
+ * the previous revision and the two texts are compared with a {@link LineDiff}.
+ * </p>
+ *
+ * <p>
+ * The results are those of svn diff: one per file added or changed, in the
+ * format of {@link SvnDiffUtils#getLineDiff(String)}, with the path relative
+ * to the url of the session. Property changes count as 0/0 and files with a
+ * binary mime type, before or after the revision, as binary. Deleted files
+ * are not reported, as their line counts are never used.
+ * </p>
+ */
+public class SvnKitDeltaLineCounter implements ISVNEditor {
+    private final SVNRepository baseRepository;
+
+    private final long baseRevision;
+
+    private final Vector answer = new Vector();
+
+    // the file being edited, null between files.
+    private String path;
+
+    private boolean added;
+
+    private byte[] baseText;
+
+    private SVNProperties baseProperties;
+
+    private boolean mimeTypeChanged;
+
+    private String mimeType;
+
+    private SVNDeltaProcessor deltaProcessor;
+
+    private ByteArrayOutputStream newText;
+
+    /**
+     * Counts the lines of a revision.
+     *
+     * @param repository
+     *            the session the update is made with, at the url to diff, or
+     *            at its folder for a file.
+     * @param baseRepository
+     *            another session at the same url, to read the texts of the
+     *            previous revision while the update is made.
+     * @param revision
+     *            the revision
+     * @param target
+     *            the name of the file to count, in the folder of the
+     *            sessions; null to count the whole folder.
+     * @return the results, see {@link SvnDiffUtils#getLineDiff(String)}
+     * @throws SVNException
+     *             if the repository cannot be read.
+     */
+    public static Vector countRevision(final SVNRepository repository, final SVNRepository baseRepository, final long revision, final String target)
+            throws SVNException {
+        final long previous = revision - 1;
+        final SVNNodeKind previousKind = previous < 0 ? SVNNodeKind.NONE : baseRepository.checkPath(target == null ? "" : target, previous);
+        // the first revision of the url is all additions.
+        final boolean startEmpty = target == null && previousKind != SVNNodeKind.DIR;
+        // a file that did not exist is reported missing, so it comes as added.
+        final boolean targetMissing = target != null && previousKind == SVNNodeKind.NONE;
+        final SvnKitDeltaLineCounter counter = new SvnKitDeltaLineCounter(baseRepository, previous);
+        repository.update(revision, target, SVNDepth.INFINITY, false, new ISVNReporterBaton() {
+            public void report(final ISVNReporter reporter) throws SVNException {
+                reporter.setPath("", null, startEmpty ? revision : previous, SVNDepth.INFINITY, startEmpty);
+                if (targetMissing) {
+                    reporter.deletePath("");
+                }
+                reporter.finishReport();
+            }
+        }, counter);
+        return counter.answer;
+    }
+
+    private SvnKitDeltaLineCounter(final SVNRepository baseRepository, final long baseRevision) {
+        this.baseRepository = baseRepository;
+        this.baseRevision = baseRevision;
+    }
+
+    public void addFile(final String filePath, final String copyFromPath, final long copyFromRevision) {
+        startFile(filePath, true);
+    }
+
+    public void openFile(final String filePath, final long revision) {
+        startFile(filePath, false);
+    }
+
+    private void startFile(final String filePath, final boolean isAdded) {
+        path = filePath;
+        added = isAdded;
+        baseText = null;
+        baseProperties = null;
+        mimeTypeChanged = false;
+        mimeType = null;
+        deltaProcessor = null;
+        newText = null;
+    }
+
+    public void changeFileProperty(final String filePath, final String propertyName, final SVNPropertyValue propertyValue) {
+        if (SVNProperty.MIME_TYPE.equals(propertyName)) {
+            mimeTypeChanged = true;
+            mimeType = SVNPropertyValue.getPropertyAsString(propertyValue);
+        }
+    }
+
+    public void applyTextDelta(final String filePath, final String baseChecksum) throws SVNException {
+        if (added) {
+            baseText = new byte[0];
+        } else {
+            readBase(true);
+        }
+        newText = new ByteArrayOutputStream(baseText.length);
+        deltaProcessor = new SVNDeltaProcessor();
+        deltaProcessor.applyTextDelta(new ByteArrayInputStream(baseText), newText, false);
+    }
+
+    public OutputStream textDeltaChunk(final String filePath, final SVNDiffWindow diffWindow) throws SVNException {
+        return deltaProcessor.textDeltaChunk(diffWindow);
+    }
+
+    public void textDeltaEnd(final String filePath) {
+        deltaProcessor.textDeltaEnd();
+    }
+
+    public void closeFile(final String filePath, final String textChecksum) throws SVNException {
+        String baseMimeType = null;
+        if (!added) {
+            readBase(false);
+            baseMimeType = baseProperties.getStringValue(SVNProperty.MIME_TYPE);
+        }
+        final String newMimeType = mimeTypeChanged ? mimeType : baseMimeType;
+
+        final Object[] result = new Object[SvnDiffUtils.RESULT_SIZE];
+        result[0] = path;
+        if (isBinary(baseMimeType) || isBinary(newMimeType)) {
+            result[1] = new int[] { 0, 0 };
+            result[2] = Boolean.TRUE;
+        } else {
+            result[1] = newText == null ? new int[] { 0, 0 } : LineDiff.countChanges(baseText, newText.toByteArray());
+            result[2] = Boolean.FALSE;
+        }
+        answer.add(result);
+        path = null;
+        baseText = null;
+        newText = null;
+    }
+
+    /**
+     * Reads the properties of the file in the previous revision, and its text
+     * if needed.
+     */
+    private void readBase(final boolean withText) throws SVNException {
+        if (baseProperties != null && (baseText != null || !withText)) {
+            return;
+        }
+        baseProperties = new SVNProperties();
+        if (withText) {
+            final ByteArrayOutputStream text = new ByteArrayOutputStream();
+            baseRepository.getFile(path, baseRevision, baseProperties, text);
+            baseText = text.toByteArray();
+        } else {
+            baseRepository.getFile(path, baseRevision, baseProperties, null);
+        }
+    }
+
+    /**
+     * Same rule as svn propget: anything but text is binary.
+     */
+    private static boolean isBinary(final String mimeType) {
+        return mimeType != null && !mimeType.startsWith("text/");
+    }
+
+    public void targetRevision(final long revision) {
+    }
+
+    public void openRoot(final long revision) {
+    }
+
+    public void deleteEntry(final String entryPath, final long revision) {
+    }
+
+    public void absentDir(final String dirPath) {
+    }
+
+    public void absentFile(final String filePath) {
+    }
+
+    public void addDir(final String dirPath, final String copyFromPath, final long copyFromRevision) {
+    }
+
+    public void openDir(final String dirPath, final long revision) {
+    }
+
+    public void changeDirProperty(final String name, final SVNPropertyValue value) {
+    }
+
+    public void closeDir() {
+    }
+
+    public SVNCommitInfo closeEdit() {
+        return null;
+    }
+
+    public void abortEdit() {
+    }
+}
@@ -1,18 +1,22 @@
 package net.sf.statsvn.util.svnkit;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.Vector;
 
 import net.sf.statsvn.output.SvnConfigurationOptions;
 import net.sf.statsvn.util.BinaryDiffException;
+import net.sf.statsvn.util.DiffCountingOutputStream;
+import net.sf.statsvn.util.DiffLineCounter;
 import net.sf.statsvn.util.StringUtils;
 import net.sf.statsvn.util.SvnDiffUtils;
 
 import org.tmatesoft.svn.core.SVNDepth;
 import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNNodeKind;
+import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.internal.util.SVNPathUtil;
+import org.tmatesoft.svn.core.io.SVNRepository;
 import org.tmatesoft.svn.core.wc.SVNClientManager;
 import org.tmatesoft.svn.core.wc.SVNRevision;
 
@@ -26,14 +30,12 @@ import org.tmatesoft.svn.core.wc.SVNRevision;
 public class SvnKitDiff extends SvnDiffUtils {
 
     /**
-     * This method converts absolute paths inside the diff output to relative ones. 
+     * The prefix of the absolute paths inside the diff output, removed to make them relative. 
      */
-    private static String replaceRelativePathWithinDiffData(File rootDirectory, String diffData) {
+    private static String getPathPrefix(File rootDirectory) {
         String rootPath = rootDirectory.getAbsoluteFile().getAbsolutePath();
         //        rootPath =  rootPath.replace(File.separator, "/") + "/"; // removing dependency to jdk1.5
-        rootPath = StringUtils.replace(File.separator, "/", rootPath);
-        // return diffData.replace(rootPath, "");  // removing dependency to jdk1.5
-        return StringUtils.replace(rootPath, "", diffData);
+        return StringUtils.replace(File.separator, "/", rootPath) + "/";
     }
 
     /**
@@ -59,19 +61,57 @@ public class SvnKitDiff extends SvnDiffUtils {
      * @return a list of diffs that were extracted from one particular revision    
      */
     public Vector getLineDiff(String newRevNr) throws IOException, BinaryDiffException {
-        ByteArrayOutputStream diffBytes = new ByteArrayOutputStream();
-        int revisionNo = Integer.parseInt(newRevNr);
+        return countRevision(getProcessor().getInfoProcessor().getRootUrl(), newRevNr, false);
+    }
+
+    /**
+     * Gets diffs inside one revision for all files under a url. 
+     * 
+     * @return a list of diffs that were extracted from one particular revision    
+     */
+    public Vector getLineDiff(String newRevNr, String url) throws IOException, BinaryDiffException {
+        return countRevision(url, newRevNr, true);
+    }
+
+    /**
+     * Counts the lines of a revision from the deltas sent by the repository
+     * instead of a unified diff: no diff text is produced. 
+     * 
+     * @param url the url to diff; paths are relative to it 
+     * @param newRevNr the revision 
+     * @param mayBeFile true if the url may be that of a file 
+     * @return a list of diffs that were extracted from one particular revision 
+     */
+    private Vector countRevision(String url, String newRevNr, boolean mayBeFile) throws IOException {
+        // the sessions are reused from one revision to the next.
+        SVNRepository[] lease = getSvnKitProcessor().leaseRepositories();
+        boolean broken = true;
         try {
-            getManager().getDiffClient().doDiff(getCheckoutDirectory(), SVNRevision.create(revisionNo), SVNRevision.create(revisionNo - 1),
-                    SVNRevision.create(revisionNo), SVNDepth.INFINITY, false, diffBytes, null);
+            SVNURL svnUrl = SVNURL.parseURIEncoded(StringUtils.replace(" ", "%20", url));
+            long revision = Long.parseLong(newRevNr);
+            String target = null;
+            // a file is updated as the target of its folder.
+            if (mayBeFile && getSvnKitProcessor().getRepository(lease, svnUrl, 1).checkPath("", revision) == SVNNodeKind.FILE) {
+                target = SVNPathUtil.tail(svnUrl.getPath());
+                svnUrl = svnUrl.removePathTail();
+            }
+            Vector results = SvnKitDeltaLineCounter.countRevision(getSvnKitProcessor().getRepository(lease, svnUrl, 0), getSvnKitProcessor()
+                    .getRepository(lease, svnUrl, 1), revision, target);
+            broken = false;
+            return results;
         } catch (SVNException ex) {
             handleSvnException(ex);
+            return new Vector();
+        } finally {
+            getSvnKitProcessor().releaseRepositories(lease, broken);
         }
-        String modDiffDataStr = replaceRelativePathWithinDiffData(getCheckoutDirectory(), diffBytes.toString());
+    }
 
-        final Vector answer = new Vector();
-        parseMultipleDiffStream(answer, new ByteArrayInputStream(modDiffDataStr.getBytes()));
-        return answer;
+    /**
+     * Closes the repository sessions kept open for the following diffs. 
+     */
+    public void close() {
+        getSvnKitProcessor().closeRepositories();
     }
 
     /**
@@ -83,16 +123,22 @@ public class SvnKitDiff extends SvnDiffUtils {
         int newRevisionNo = Integer.parseInt(newRevNr);
         File newFile = new File(getProcessor().getInfoProcessor().relativeToAbsolutePath(filename));
         File oldFile = newFile;
-        ByteArrayOutputStream diffBytes = new ByteArrayOutputStream();
+        // the diff is counted as svnkit writes it.
+        DiffLineCounter counter = new DiffLineCounter();
+        counter.setPathPrefix(getPathPrefix(getCheckoutDirectory()));
+        DiffCountingOutputStream diffStream = new DiffCountingOutputStream(counter);
         try {
             getManager().getDiffClient().doDiff(oldFile, SVNRevision.create(oldRevisionNo), newFile, SVNRevision.create(newRevisionNo), SVNDepth.INFINITY,
-                    false, diffBytes, null);
+                    false, diffStream, null);
         } catch (SVNException ex) {
             handleSvnException(ex);
         }
-        String modDiffDataStr = replaceRelativePathWithinDiffData(getCheckoutDirectory(), diffBytes.toString());
+        diffStream.close();
 
-        return parseSingleDiffStream(new ByteArrayInputStream(modDiffDataStr.getBytes()));
+        if (counter.isBinary()) {
+            throw new BinaryDiffException();
+        }
+        return counter.getLineDiff();
     }
 
     /**
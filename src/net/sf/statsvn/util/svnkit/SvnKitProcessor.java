@@ -1,6 +1,7 @@
 package net.sf.statsvn.util.svnkit;
 
 import java.io.File;
+import java.util.LinkedList;
 
 import net.sf.statsvn.output.SvnConfigurationOptions;
 import net.sf.statsvn.util.ISvnDiffProcessor;
@@ -9,10 +10,13 @@ import net.sf.statsvn.util.ISvnProcessor;
 import net.sf.statsvn.util.ISvnPropgetProcessor;
 import net.sf.statsvn.util.ISvnVersionProcessor;
 
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNURL;
 import org.tmatesoft.svn.core.internal.io.dav.DAVRepositoryFactory;
 import org.tmatesoft.svn.core.internal.io.fs.FSRepositoryFactory;
 import org.tmatesoft.svn.core.internal.io.svn.SVNRepositoryFactoryImpl;
 import org.tmatesoft.svn.core.internal.wc.DefaultSVNOptions;
+import org.tmatesoft.svn.core.io.SVNRepository;
 import org.tmatesoft.svn.core.wc.SVNClientManager;
 import org.tmatesoft.svn.core.wc.SVNWCUtil;
 
@@ -23,16 +27,47 @@ import org.tmatesoft.svn.core.wc.SVNWCUtil;
  *
  */
 public class SvnKitProcessor implements ISvnProcessor {
+    /**
+     * Sessions a diff holds at once: it updates through one and reads the
+     * previous texts through the other. 
+     */
+    public static final int SESSIONS_PER_LEASE = 2;
 
     
     private File checkoutDirectory;
     private ISvnDiffProcessor diffProcessorInstance;
     
     private ISvnInfoProcessor infoProcessorInstance;
-    private SVNClientManager manager;
+    // one client manager per thread.
+    private final ThreadLocal managers = new ThreadLocal() {
+        protected Object initialValue() {
+            return createManager();
+        }
+    };
+
+    // the open repository sessions no diff holds, as SVNRepository[SESSIONS_PER_LEASE].
+    private final LinkedList idleSessions = new LinkedList();
     
     private ISvnPropgetProcessor propgetProcessorInstance;
     private ISvnVersionProcessor versionProcessorInstance;
+
+    /**
+     * Processor for the working copy given on the command line.
+     */
+    public SvnKitProcessor()
+    {
+    }
+
+    /**
+     * Processor for another working copy, used when reporting on several
+     * branches at once.
+     * 
+     * @param checkoutDirectory the working copy 
+     */
+    public SvnKitProcessor(File checkoutDirectory)
+    {
+        this.checkoutDirectory = checkoutDirectory;
+    }
     
     public File getCheckoutDirectory()
     {
@@ -53,28 +88,127 @@ public class SvnKitProcessor implements ISvnProcessor {
         if (infoProcessorInstance==null) infoProcessorInstance = new SvnKitInfo(this);
         return infoProcessorInstance;
     }
+    /**
+     * The client manager of the calling thread. Client managers are not meant
+     * to be shared between threads, so each diff thread gets its own, kept
+     * for the following calls. 
+     * 
+     * @return the client manager of this thread
+     */
     public SVNClientManager getManager()
     {
-        if (manager==null) 
+        return (SVNClientManager) managers.get();
+    }
+
+    private SVNClientManager createManager()
+    {
+        // initialize 
+        DAVRepositoryFactory.setup();
+        SVNRepositoryFactoryImpl.setup();
+        FSRepositoryFactory.setup();
+
+        //readonly - configuration options are available only for reading
+        DefaultSVNOptions options = SVNWCUtil.createDefaultOptions(true);
+        options.setAuthStorageEnabled(false);
+
+        // Creates an instance of SVNClientManager providing an options driver & username & password 
+        if (SvnConfigurationOptions.getSvnUsername()!=null && SvnConfigurationOptions.getSvnPassword()!=null)
+            return SVNClientManager.newInstance(options, SvnConfigurationOptions.getSvnUsername(), SvnConfigurationOptions.getSvnPassword());
+        else
+            return SVNClientManager.newInstance(options);
+    }
+
+    /**
+     * Takes repository sessions for one diff: sessions left open by a previous
+     * diff if any, so that the connections are not set up for every diff
+     * whatever the thread it runs on. To be given back with
+     * {@link #releaseRepositories(SVNRepository[], boolean)}. 
+     * 
+     * @return the sessions, opened on demand by {@link #getRepository(SVNRepository[], SVNURL, int)} 
+     */
+    public SVNRepository[] leaseRepositories()
+    {
+        synchronized (idleSessions)
         {
-            // initialize 
-            DAVRepositoryFactory.setup();
-            SVNRepositoryFactoryImpl.setup();
-            FSRepositoryFactory.setup();
-            
-            //readonly - configuration options are available only for reading
-            DefaultSVNOptions options = SVNWCUtil.createDefaultOptions(true);
-            options.setAuthStorageEnabled(false);
-                    
-            // Creates an instance of SVNClientManager providing an options driver & username & password 
-            if (SvnConfigurationOptions.getSvnUsername()!=null && SvnConfigurationOptions.getSvnPassword()!=null)
-                manager = SVNClientManager.newInstance(options, SvnConfigurationOptions.getSvnUsername(), SvnConfigurationOptions.getSvnPassword());
-            else
-                manager = SVNClientManager.newInstance(options);
+            if (!idleSessions.isEmpty())
+            {
+                return (SVNRepository[]) idleSessions.removeFirst();
+            }
         }
-        return manager;
-    }  
-    
+        return new SVNRepository[SESSIONS_PER_LEASE];
+    }
+
+    /**
+     * One of the leased sessions, moved to the given url. 
+     * 
+     * @param lease the sessions of {@link #leaseRepositories()} 
+     * @param url the url the session must be at 
+     * @param session which of the sessions, from 0 to SESSIONS_PER_LEASE - 1
+     * @return the session 
+     * @throws SVNException if the session cannot be opened 
+     */
+    public SVNRepository getRepository(SVNRepository[] lease, SVNURL url, int session) throws SVNException
+    {
+        if (lease[session] == null)
+        {
+            lease[session] = getManager().createRepository(url, false);
+        }
+        else if (!url.equals(lease[session].getLocation()))
+        {
+            lease[session].setLocation(url, false);
+        }
+        return lease[session];
+    }
+
+    /**
+     * Gives back leased sessions. They are kept open for the next diff, at
+     * most as many as the diffs made at once; the others are closed. 
+     * 
+     * @param lease the sessions of {@link #leaseRepositories()} 
+     * @param broken true after an error that may have left them unusable 
+     */
+    public void releaseRepositories(SVNRepository[] lease, boolean broken)
+    {
+        if (!broken)
+        {
+            synchronized (idleSessions)
+            {
+                if (idleSessions.size() < Math.max(1, SvnConfigurationOptions.getNumberSvnDiffThreads()))
+                {
+                    idleSessions.add(lease);
+                    return;
+                }
+            }
+        }
+        close(lease);
+    }
+
+    /**
+     * Closes the sessions kept open, once all diffs are made. 
+     */
+    public void closeRepositories()
+    {
+        synchronized (idleSessions)
+        {
+            while (!idleSessions.isEmpty())
+            {
+                close((SVNRepository[]) idleSessions.removeFirst());
+            }
+        }
+    }
+
+    private static void close(SVNRepository[] lease)
+    {
+        for (int i = 0; i < lease.length; i++)
+        {
+            if (lease[i] != null)
+            {
+                lease[i].closeSession();
+                lease[i] = null;
+            }
+        }
+    }
+
     public ISvnPropgetProcessor getPropgetProcessor()
     {
         if (propgetProcessorInstance==null) propgetProcessorInstance = new SvnKitPropget(this);